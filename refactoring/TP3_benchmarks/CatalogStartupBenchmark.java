@@ -0,0 +1,115 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compare le démarrage avec un grand catalogue (1M items par défaut) :
+ * création des items un par un, relecture de l'instantané du journal, et ouverture du catalogue mappé
+ * Pour chaque méthode : temps jusqu'à la première vente possible et mémoire retenue
+ *
+ * Usage : java CatalogStartupBenchmark [nombre d'items]
+ */
+public class CatalogStartupBenchmark {
+    private static final String[] TYPES = {"main", "snack", "drink"};
+    
+    public static void main(String[] args) throws IOException {
+        int catalogSize = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<Item> catalog = new ArrayList<>(catalogSize);
+        for (int i = 0; i < catalogSize; i++) {
+            catalog.add(new Item("SKU-" + i, 4.99, 100, TYPES[i % TYPES.length], i % 3 == 2 ? "Medium" : null));
+        }
+        String lastItem = "SKU-" + (catalogSize - 1);
+        
+        Path directory = Files.createTempDirectory("catalog-startup");
+        try {
+            writeJournalSnapshot(directory.resolve("journal"), catalog);
+            Path catalogFile = directory.resolve("catalog.mcdi");
+            MappedInventoryFile.write(catalogFile, catalog);
+            catalog = null; // seule la mémoire retenue par chaque démarrage est mesurée
+            
+            System.out.printf("%d items, catalogue mappé de %d Mo%n", catalogSize, Files.size(catalogFile) >> 20);
+            System.out.printf("%-24s %12s %14s%n", "démarrage", "temps (ms)", "mémoire (Mo)");
+            
+            long heapBefore = usedHeap();
+            long start = System.nanoTime();
+            InventoryManager built = new InventoryManager();
+            for (int i = 0; i < catalogSize; i++) {
+                built.addItem(new Item("SKU-" + i, 4.99, 100, TYPES[i % TYPES.length], i % 3 == 2 ? "Medium" : null));
+            }
+            sell(built, lastItem);
+            report("items créés un par un", start, heapBefore, built);
+            built = null;
+            
+            heapBefore = usedHeap();
+            start = System.nanoTime();
+            InventoryManager recovered = new InventoryManager();
+            try (InventoryJournal journal = InventoryJournal.open(directory.resolve("journal"))) {
+                journal.recover(recovered, new OrderService(recovered));
+            }
+            sell(recovered, lastItem);
+            report("instantané du journal", start, heapBefore, recovered);
+            recovered = null;
+            
+            heapBefore = usedHeap();
+            start = System.nanoTime();
+            InventoryManager mapped = new InventoryManager();
+            try (MappedInventoryFile file = MappedInventoryFile.open(catalogFile)) {
+                mapped.openMappedFile(file);
+                sell(mapped, lastItem);
+                report("catalogue mappé", start, heapBefore, mapped);
+            }
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+    
+    private static void writeJournalSnapshot(Path directory, List<Item> catalog) throws IOException {
+        InventoryManager inventoryManager = new InventoryManager();
+        for (Item item : catalog) {
+            inventoryManager.addItem(item);
+        }
+        OrderService orderService = new OrderService(inventoryManager);
+        try (InventoryJournal journal = InventoryJournal.open(directory)) {
+            journal.recover(new InventoryManager(), orderService);
+            journal.attach(inventoryManager, orderService, 0);
+        }
+    }
+    
+    /**
+     * Première vente après le démarrage : recherche par nom puis retrait du stock
+     */
+    private static void sell(InventoryManager inventoryManager, String itemName) {
+        if (!inventoryManager.removeStock(itemName, 1)) {
+            throw new IllegalStateException("Erreur: Vente impossible: " + itemName);
+        }
+    }
+    
+    private static void report(String label, long start, long heapBefore, InventoryManager inventoryManager) {
+        double millis = (System.nanoTime() - start) / 1_000_000.0;
+        long retained = Math.max(0, usedHeap() - heapBefore);
+        System.out.printf("%-24s %12.1f %14d%n", label, millis, retained >> 20);
+        if (inventoryManager.findItemByName("SKU-0") == null) {
+            throw new IllegalStateException("Erreur: Catalogue incomplet");
+        }
+    }
+    
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Mesure le coût d'une recherche par nom quand le catalogue grandit de 10 à 100 000 items
+ * Avec l'index par nom, le temps par recherche doit rester stable; le chargement doit rester linéaire
+ * Le parcours linéaire d'une ArrayList (ancienne implémentation) sert de référence
+ *
+ * Usage : java InventoryLookupBenchmark [recherches par mesure]
+ */
+public class InventoryLookupBenchmark {
+    private static final int[] CATALOG_SIZES = {10, 100, 1_000, 10_000, 100_000};
+    private static final String[] TYPES = {"main", "snack", "drink"};
+    private static final int RUNS = 5;
+    
+    public static void main(String[] args) {
+        int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        
+        System.out.printf("%-10s %16s %18s %20s%n", "items", "chargement (ms)", "index (ns)", "parcours (ns)");
+        for (int catalogSize : CATALOG_SIZES) {
+            long loadStart = System.nanoTime();
+            InventoryManager inventoryManager = new InventoryManager();
+            List<Item> scanned = new ArrayList<>();
+            for (int i = 0; i < catalogSize; i++) {
+                Item item = new Item(skuName(i), 4.99, 100, TYPES[i % TYPES.length]);
+                inventoryManager.addItem(item);
+                scanned.add(item);
+            }
+            double loadMillis = (System.nanoTime() - loadStart) / 1_000_000.0;
+            
+            // Noms tirés d'avance pour ne mesurer que la recherche
+            Random random = new Random(42);
+            String[] names = new String[4096];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = skuName(random.nextInt(catalogSize));
+            }
+            
+            double bestLookup = Double.MAX_VALUE;
+            double bestScan = Double.MAX_VALUE;
+            int scans = Math.max(1_000, lookups / catalogSize);
+            long found = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < lookups; i++) {
+                    if (inventoryManager.findItemByName(names[i & (names.length - 1)]) != null) {
+                        found++;
+                    }
+                }
+                bestLookup = Math.min(bestLookup, (double) (System.nanoTime() - start) / lookups);
+                
+                start = System.nanoTime();
+                for (int i = 0; i < scans; i++) {
+                    if (scan(scanned, names[i & (names.length - 1)]) != null) {
+                        found++;
+                    }
+                }
+                bestScan = Math.min(bestScan, (double) (System.nanoTime() - start) / scans);
+            }
+            if (found != (long) RUNS * (lookups + scans)) {
+                throw new IllegalStateException("Erreur: Items introuvables: " + (RUNS * (lookups + scans) - found));
+            }
+            System.out.printf("%-10d %16.1f %18.1f %20.1f%n", catalogSize, loadMillis, bestLookup, bestScan);
+        }
+    }
+    
+    private static Item scan(List<Item> items, String name) {
+        for (Item item : items) {
+            if (item.getName().equals(name)) {
+                return item;
+            }
+        }
+        return null;
+    }
+    
+    private static String skuName(int index) {
+        return "SKU-" + index;
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Test de charge du stock d'un item : 64 threads modifient le même Item en même temps
+ * 1. Épuisement : chaque thread retire une unité jusqu'à la rupture; exactement le stock initial doit être vendu
+ * 2. Mélange : ajouts, retraits, réservations confirmées ou annulées; le stock final doit être exact,
+ *    ne jamais passer sous zéro, et aucune réservation ne doit rester en cours
+ *
+ * Usage : java ItemStockStressTest [opérations par thread]
+ * Termine avec le code 1 si une vérification échoue
+ */
+public class ItemStockStressTest {
+    private static final int THREADS = 64;
+    
+    public static void main(String[] args) throws InterruptedException {
+        int operationsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        boolean passed = checkExhaustion(100_000) & checkMixedOperations(operationsPerThread);
+        System.out.println(passed ? "OK" : "ÉCHEC");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+    
+    private static boolean checkExhaustion(int initialStock) throws InterruptedException {
+        Item item = new Item("Big Mac", 6.99, initialStock, "main");
+        AtomicLong sold = new AtomicLong();
+        runConcurrently(() -> {
+            long soldByThread = 0;
+            while (item.removeStock(1)) {
+                soldByThread++;
+            }
+            sold.addAndGet(soldByThread);
+        });
+        return check("épuisement : vendu " + sold.get() + " sur " + initialStock + ", stock final " + item.getStock(),
+                sold.get() == initialStock && item.getStock() == 0);
+    }
+    
+    private static boolean checkMixedOperations(int operationsPerThread) throws InterruptedException {
+        int initialStock = 1_000;
+        Item item = new Item("Frites", 3.49, initialStock, "snack");
+        AtomicLong netChange = new AtomicLong();
+        AtomicBoolean wentNegative = new AtomicBoolean();
+        AtomicBoolean running = new AtomicBoolean(true);
+        
+        Thread observer = new Thread(() -> {
+            while (running.get()) {
+                if (item.getStock() < 0 || item.getReservedStock() < 0) {
+                    wentNegative.set(true);
+                }
+            }
+        });
+        observer.start();
+        
+        runConcurrently(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long change = 0;
+            for (int i = 0; i < operationsPerThread; i++) {
+                int quantity = 1 + random.nextInt(3);
+                switch (random.nextInt(4)) {
+                    case 0:
+                        item.addStock(quantity);
+                        change += quantity;
+                        break;
+                    case 1:
+                        if (item.removeStock(quantity)) {
+                            change -= quantity;
+                        }
+                        break;
+                    case 2:
+                        if (item.tryReserve(quantity)) {
+                            item.commit(quantity);
+                            change -= quantity;
+                        }
+                        break;
+                    default:
+                        if (item.tryReserve(quantity)) {
+                            item.release(quantity);
+                        }
+                }
+            }
+            netChange.addAndGet(change);
+        });
+        running.set(false);
+        observer.join();
+        
+        long expected = initialStock + netChange.get();
+        return check("mélange : stock final " + item.getStock() + " (attendu " + expected + "), réservé "
+                        + item.getReservedStock() + ", sous zéro " + wentNegative.get(),
+                item.getStock() == expected && item.getReservedStock() == 0 && !wentNegative.get());
+    }
+    
+    private static void runConcurrently(Runnable task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                task.run();
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+    
+    private static boolean check(String description, boolean passed) {
+        System.out.println((passed ? "[OK]     " : "[ÉCHEC]  ") + description);
+        return passed;
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Mesure le temps de redémarrage selon la taille du journal d'inventaire
+ * Pour chaque taille, le journal est rempli de variations de stock puis abandonné sans instantané (arrêt brutal),
+ * et la relecture est comparée à celle d'un instantané seul
+ *
+ * Usage : java JournalRecoveryBenchmark [nombre d'enregistrements...]
+ */
+public class JournalRecoveryBenchmark {
+    private static final int[] DEFAULT_SIZES = {10_000, 100_000, 1_000_000};
+    private static final int RUNS = 5;
+    
+    public static void main(String[] args) throws IOException {
+        int[] sizes = args.length == 0 ? DEFAULT_SIZES : Stream.of(args).mapToInt(Integer::parseInt).toArray();
+        System.out.printf("%-14s %14s %18s %18s%n", "enregistrements", "journal (Ko)", "journal (ms)", "instantané (ms)");
+        for (int size : sizes) {
+            Path directory = Files.createTempDirectory("journal-recovery");
+            try {
+                long journalBytes = fillJournal(directory, size);
+                double fromJournal = medianRecoveryMillis(directory);
+                compact(directory);
+                double fromSnapshot = medianRecoveryMillis(directory);
+                System.out.printf("%-14d %14d %18.1f %18.1f%n", size, journalBytes / 1024, fromJournal, fromSnapshot);
+            } finally {
+                deleteRecursively(directory);
+            }
+        }
+    }
+    
+    /**
+     * Écrit size variations de stock réparties sur l'inventaire par défaut, en un seul fsync final
+     */
+    private static long fillJournal(Path directory, int size) throws IOException {
+        InventoryManager inventoryManager = new InventoryManager();
+        OrderService orderService = new OrderService(inventoryManager);
+        InventoryJournal journal = InventoryJournal.open(directory);
+        journal.recover(inventoryManager, orderService);
+        inventoryManager.initializeDefaultInventory();
+        journal.attach(inventoryManager, orderService, 0);
+        
+        List<Item> items = inventoryManager.getAllItems();
+        long seq = 0;
+        for (int i = 0; i < size; i++) {
+            String name = items.get(i % items.size()).getName();
+            seq = journal.logStockChange(name, i % 2 == 0 ? 1 : -1);
+        }
+        journal.awaitDurable(seq);
+        inventoryManager.setJournal(null); // abandon sans instantané final
+        return Files.size(directory.resolve("inventory.journal"));
+    }
+    
+    private static void compact(Path directory) throws IOException {
+        InventoryManager inventoryManager = new InventoryManager();
+        OrderService orderService = new OrderService(inventoryManager);
+        try (InventoryJournal journal = InventoryJournal.open(directory)) {
+            journal.recover(inventoryManager, orderService);
+            journal.attach(inventoryManager, orderService, 0);
+        }
+    }
+    
+    /**
+     * Relit le répertoire plusieurs fois sans rien y réécrire
+     * Le journal n'est pas attaché, donc la relecture ne le compacte pas
+     */
+    private static double medianRecoveryMillis(Path directory) throws IOException {
+        double[] millis = new double[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            InventoryManager inventoryManager = new InventoryManager();
+            OrderService orderService = new OrderService(inventoryManager);
+            long start = System.nanoTime();
+            InventoryJournal journal = InventoryJournal.open(directory);
+            journal.recover(inventoryManager, orderService);
+            millis[run] = (System.nanoTime() - start) / 1_000_000.0;
+            journal.close();
+        }
+        Arrays.sort(millis);
+        return millis[RUNS / 2];
+    }
+    
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
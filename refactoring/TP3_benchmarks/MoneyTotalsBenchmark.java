@@ -0,0 +1,94 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Total d'un lot d'un million de lignes de commande, selon trois méthodes :
+ * - double (ancienne implémentation : prix en double, rabais trio arrondi avec Math.round)
+ * - Money.plus (un objet par addition)
+ * - cents en long (CartItem.getPriceCents), qui ne crée aucun objet
+ * Affiche le temps, les octets alloués par ligne et l'écart du total double par rapport au total exact
+ *
+ * Usage : java MoneyTotalsBenchmark [nombre de lignes]
+ */
+public class MoneyTotalsBenchmark {
+    private static final int RUNS = 10;
+    
+    public static void main(String[] args) {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<CartItem> lines = createLines(lineCount);
+        
+        System.out.printf("%-14s %12s %16s %22s%n", "méthode", "temps (ms)", "octets/ligne", "total");
+        measure("double", lines, () -> {
+            double total = 0;
+            for (CartItem line : lines) {
+                total += doublePrice(line);
+            }
+            return String.valueOf(total); // sans arrondi, pour voir la dérive
+        });
+        measure("Money.plus", lines, () -> {
+            Money total = Money.ZERO;
+            for (CartItem line : lines) {
+                total = total.plus(line.getPrice());
+            }
+            return total.toString();
+        });
+        measure("cents (long)", lines, () -> {
+            long totalCents = 0;
+            for (CartItem line : lines) {
+                totalCents += line.getPriceCents();
+            }
+            return Money.ofCents(totalCents).toString();
+        });
+    }
+    
+    private interface Total {
+        String compute();
+    }
+    
+    private static void measure(String label, List<CartItem> lines, Total total) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        String result = null;
+        double bestMillis = Double.MAX_VALUE;
+        long allocated = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            result = total.compute();
+            bestMillis = Math.min(bestMillis, (System.nanoTime() - start) / 1_000_000.0);
+            allocated = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+        }
+        System.out.printf("%-14s %12.1f %16.1f %22s%n", label, bestMillis, (double) allocated / lines.size(), result);
+    }
+    
+    /**
+     * Prix d'une ligne comme le calculait l'ancien CartItem.getPrice
+     */
+    private static double doublePrice(CartItem line) {
+        double main = line.getItem().getPrice().getCents() / 100.0;
+        if (!line.isTrio()) {
+            return main;
+        }
+        double total = main + line.getTrioSnack().getPrice().getCents() / 100.0
+                + line.getTrioDrink().getPrice().getCents() / 100.0;
+        return Math.round(total * 0.85 * 100.0) / 100.0;
+    }
+    
+    private static List<CartItem> createLines(int lineCount) {
+        List<Item> menu = InventoryManager.createDefaultItems();
+        List<Item> mains = menu.stream().filter(item -> item.getType().equals("main")).toList();
+        List<Item> snacks = menu.stream().filter(item -> item.getType().equals("snack")).toList();
+        List<Item> drinks = menu.stream().filter(item -> item.getType().equals("drink")).toList();
+        Random random = new Random(42);
+        List<CartItem> lines = new ArrayList<>(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            lines.add(random.nextBoolean()
+                    ? new CartItem(menu.get(random.nextInt(menu.size())))
+                    : new CartItem(mains.get(random.nextInt(mains.size())), snacks.get(random.nextInt(snacks.size())),
+                                   drinks.get(random.nextInt(drinks.size()))));
+        }
+        return lines;
+    }
+}
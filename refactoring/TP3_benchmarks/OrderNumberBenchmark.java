@@ -0,0 +1,91 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Compare le débit de numérotation des commandes sous contention :
+ * compteur synchronisé (ancienne implémentation), séquenceur par stripes, et une caisse par thread
+ *
+ * Usage : java OrderNumberBenchmark [numéros par thread]
+ */
+public class OrderNumberBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 4, 16, 64};
+    private static final int RUNS = 5;
+    
+    /**
+     * Équivalent de l'ancien OrderService.getNextOrderNumber, rendu correct par un verrou
+     */
+    private static class SynchronizedCounter {
+        private int orderNumber = 1;
+        
+        synchronized int next() {
+            return orderNumber++;
+        }
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        int numbersPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        
+        System.out.printf("%-8s %18s %18s %18s%n", "threads", "synchronized", "séquenceur", "caisses");
+        System.out.printf("%-8s %18s %18s %18s%n", "", "(M num/s)", "(M num/s)", "(M num/s)");
+        for (int threads : THREAD_COUNTS) {
+            double locked = bestRate(threads, numbersPerThread, () -> {
+                SynchronizedCounter counter = new SynchronizedCounter();
+                return () -> counter::next;
+            });
+            double striped = bestRate(threads, numbersPerThread, () -> {
+                OrderNumberSequencer sequencer = new OrderNumberSequencer(1);
+                return () -> sequencer::next;
+            });
+            double registers = bestRate(threads, numbersPerThread, () -> {
+                OrderNumberSequencer sequencer = new OrderNumberSequencer(1);
+                return () -> sequencer.newRegister()::next;
+            });
+            System.out.printf("%-8d %18.1f %18.1f %18.1f%n", threads, locked, striped, registers);
+        }
+    }
+    
+    /**
+     * @param source crée un compteur neuf par mesure, qui fournit un distributeur par thread
+     * @return le meilleur débit observé, en millions de numéros par seconde
+     */
+    private static double bestRate(int threads, int numbersPerThread,
+                                   Supplier<Supplier<IntSupplier>> source) throws InterruptedException {
+        double best = 0;
+        for (int run = 0; run < RUNS; run++) {
+            Supplier<IntSupplier> perThread = source.get();
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] workers = new Thread[threads];
+            long[] checksums = new long[threads]; // garde les numéros utilisés, sinon la boucle peut être éliminée
+            for (int t = 0; t < threads; t++) {
+                int index = t;
+                IntSupplier numbers = perThread.get();
+                workers[t] = new Thread(() -> {
+                    awaitQuietly(start);
+                    long sum = 0;
+                    for (int i = 0; i < numbersPerThread; i++) {
+                        sum += numbers.getAsInt();
+                    }
+                    checksums[index] = sum;
+                });
+                workers[t].start();
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsed = System.nanoTime() - begin;
+            best = Math.max(best, (double) threads * numbersPerThread * 1_000 / elapsed);
+        }
+        return best;
+    }
+    
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
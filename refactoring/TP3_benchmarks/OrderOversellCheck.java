@@ -0,0 +1,119 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Vérifie qu'aucune commande ne vend plus que le stock : 64 clients sur des threads virtuels passent des
+ * commandes via l'OrderEngine (items seuls et trios qui se disputent les mêmes items) jusqu'à la rupture
+ * Pour chaque item, les unités des commandes acceptées doivent égaler exactement le stock retiré,
+ * et chaque commande acceptée doit avoir un numéro unique
+ *
+ * Usage : java OrderOversellCheck [nombre de manches]
+ * Termine avec le code 1 si une vérification échoue
+ */
+public class OrderOversellCheck {
+    private static final int CLIENTS = 64;
+    
+    public static void main(String[] args) throws InterruptedException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        boolean passed = true;
+        for (int round = 0; round < rounds && passed; round++) {
+            passed = runRound();
+        }
+        System.out.println(passed ? "OK (" + rounds + " manches)" : "ÉCHEC");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+    
+    private static boolean runRound() throws InterruptedException {
+        InventoryManager inventoryManager = new InventoryManager();
+        inventoryManager.initializeDefaultInventory();
+        List<Item> items = inventoryManager.getAllItems();
+        Map<Item, Integer> initialStock = new ConcurrentHashMap<>();
+        for (Item item : items) {
+            initialStock.put(item, item.getStock());
+        }
+        List<Item> mains = inventoryManager.getItemsByType("main");
+        List<Item> snacks = inventoryManager.getItemsByType("snack");
+        List<Item> drinks = inventoryManager.getItemsByType("drink");
+        
+        OrderService orderService = new OrderService(inventoryManager);
+        Map<Item, Integer> sold = new ConcurrentHashMap<>();
+        Set<Integer> orderNumbers = ConcurrentHashMap.newKeySet();
+        List<Integer> duplicates = new ArrayList<>();
+        
+        try (OrderEngine orderEngine = new OrderEngine(orderService)) {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> clients = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; c++) {
+                clients.add(Thread.ofVirtual().start(() -> {
+                    awaitQuietly(start);
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    int rejectedInARow = 0;
+                    while (rejectedInARow < 20) {
+                        ShoppingCart cart = new ShoppingCart();
+                        for (int line = 1 + random.nextInt(3); line > 0; line--) {
+                            Item main = mains.get(random.nextInt(mains.size()));
+                            cart.addItem(random.nextBoolean()
+                                    ? new CartItem(main, snacks.get(random.nextInt(snacks.size())),
+                                                   drinks.get(random.nextInt(drinks.size())))
+                                    : new CartItem(items.get(random.nextInt(items.size()))));
+                        }
+                        OrderResult result = orderEngine.placeOrder(cart);
+                        if (!result.isAccepted()) {
+                            rejectedInARow++;
+                            continue;
+                        }
+                        rejectedInARow = 0;
+                        if (!orderNumbers.add(result.getOrderNumber())) {
+                            synchronized (duplicates) {
+                                duplicates.add(result.getOrderNumber());
+                            }
+                        }
+                        for (CartItem cartItem : result.getItems()) {
+                            sold.merge(cartItem.getItem(), 1, Integer::sum);
+                            if (cartItem.isTrio()) {
+                                sold.merge(cartItem.getTrioSnack(), 1, Integer::sum);
+                                sold.merge(cartItem.getTrioDrink(), 1, Integer::sum);
+                            }
+                        }
+                    }
+                }));
+            }
+            start.countDown();
+            for (Thread client : clients) {
+                client.join();
+            }
+        }
+        
+        boolean passed = duplicates.isEmpty();
+        Set<String> problems = new HashSet<>();
+        for (Item item : items) {
+            int soldUnits = sold.getOrDefault(item, 0);
+            int removed = initialStock.get(item) - item.getStock();
+            if (item.getStock() < 0 || soldUnits != removed || item.getReservedStock() != 0) {
+                problems.add(item.getName() + " : vendu " + soldUnits + ", retiré " + removed
+                        + ", stock " + item.getStock() + ", réservé " + item.getReservedStock());
+            }
+        }
+        passed &= problems.isEmpty();
+        if (!passed) {
+            System.out.println("[ÉCHEC]  " + problems + (duplicates.isEmpty() ? "" : " numéros en double " + duplicates));
+        }
+        return passed;
+    }
+    
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
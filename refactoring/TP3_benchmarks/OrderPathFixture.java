@@ -0,0 +1,100 @@
+import java.io.Writer;
+import java.util.List;
+import java.util.Random;
+
+import jmh.OrderPath;
+
+/**
+ * Inventaire et paniers utilisés par les benchmarks JMH du chemin de commande (voir jmh.OrderPath)
+ * Le catalogue contient des items de chaque type; les paniers mélangent items seuls et trios
+ */
+public class OrderPathFixture implements OrderPath.Catalog {
+    private static final int INITIAL_STOCK = 1_000_000_000;
+    private static final String[] TYPES = {"main", "snack", "drink"};
+    
+    private final InventoryManager inventoryManager;
+    private final OrderService orderService;
+    private final List<Item> items;
+    
+    public OrderPathFixture(int catalogSize) {
+        inventoryManager = new InventoryManager();
+        for (int i = 0; i < catalogSize; i++) {
+            String type = TYPES[i % TYPES.length];
+            inventoryManager.addItem(new Item("SKU-" + i, Money.ofCents(199 + i % 700), INITIAL_STOCK, type,
+                    type.equals("drink") ? "Medium" : null));
+        }
+        orderService = new OrderService(inventoryManager);
+        items = inventoryManager.getAllItems();
+    }
+    
+    @Override
+    public OrderPath.Client newClient(int cartSize, long seed) {
+        return new Client(cartSize, seed);
+    }
+    
+    @Override
+    public void restock() {
+        for (Item item : items) {
+            inventoryManager.addStock(item.getName(), INITIAL_STOCK - item.getStock());
+        }
+    }
+    
+    private class Client implements OrderPath.Client {
+        private final ShoppingCart cart = new ShoppingCart();
+        private final MenuDisplay menuDisplay = new MenuDisplay(Writer.nullWriter());
+        private final String[] names = new String[1024];
+        private int nextName;
+        
+        Client(int cartSize, long seed) {
+            Random random = new Random(seed);
+            List<Item> mains = inventoryManager.getItemsByType("main");
+            List<Item> snacks = inventoryManager.getItemsByType("snack");
+            List<Item> drinks = inventoryManager.getItemsByType("drink");
+            for (int line = 0; line < cartSize; line++) {
+                if (line % 2 == 1 && !snacks.isEmpty() && !drinks.isEmpty()) {
+                    cart.addItem(new CartItem(mains.get(random.nextInt(mains.size())),
+                            snacks.get(random.nextInt(snacks.size())), drinks.get(random.nextInt(drinks.size()))));
+                } else {
+                    cart.addItem(new CartItem(items.get(random.nextInt(items.size()))));
+                }
+            }
+            for (int i = 0; i < names.length; i++) {
+                names[i] = items.get(random.nextInt(items.size())).getName();
+            }
+        }
+        
+        @Override
+        public Object findItemByName() {
+            return inventoryManager.findItemByName(names[nextName++ & (names.length - 1)]);
+        }
+        
+        @Override
+        public long calculateTotal() {
+            return cart.calculateTotal().getCents();
+        }
+        
+        @Override
+        public long sumLinePrices() {
+            long total = 0;
+            for (CartItem cartItem : cart.getItems()) {
+                total += cartItem.getPrice().getCents();
+            }
+            return total;
+        }
+        
+        @Override
+        public boolean validateCartStock() {
+            return orderService.validateCartStock(cart);
+        }
+        
+        @Override
+        public boolean processOrder() {
+            return orderService.processOrder(cart);
+        }
+        
+        @Override
+        public void displayReceipt() {
+            menuDisplay.displayReceipt(42, cart);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Débit des commandes sous contention : tous les threads commandent les mêmes items (un trio et un item seul)
+ * Compare OrderService.processOrder, qui réserve item par item dans un ordre fixe, à la même commande
+ * protégée par un verrou global sur tout l'inventaire
+ *
+ * Usage : java OrderThroughputBenchmark [commandes par thread]
+ */
+public class OrderThroughputBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 4, 16, 64};
+    private static final int RUNS = 5;
+    
+    private interface OrderPath {
+        boolean process(ShoppingCart cart);
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        int ordersPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        
+        System.out.printf("%-8s %22s %22s%n", "threads", "verrou global (cmd/s)", "par item (cmd/s)");
+        for (int threads : THREAD_COUNTS) {
+            double locked = bestRate(threads, ordersPerThread, true);
+            double perItem = bestRate(threads, ordersPerThread, false);
+            System.out.printf("%-8d %22.0f %22.0f%n", threads, locked, perItem);
+        }
+    }
+    
+    private static double bestRate(int threads, int ordersPerThread, boolean globalLock) throws InterruptedException {
+        double best = 0;
+        for (int run = 0; run < RUNS; run++) {
+            InventoryManager inventoryManager = new InventoryManager();
+            int stock = threads * ordersPerThread * 2;
+            inventoryManager.addItem(new Item("Big Mac", 6.99, stock, "main"));
+            inventoryManager.addItem(new Item("Frites", 3.49, stock, "snack"));
+            inventoryManager.addItem(new Item("Coca-Cola", 2.49, stock, "drink", "Medium"));
+            OrderService orderService = new OrderService(inventoryManager);
+            OrderPath path = globalLock
+                    ? cart -> {
+                        synchronized (inventoryManager) {
+                            return orderService.processOrder(cart);
+                        }
+                    }
+                    : orderService::processOrder;
+            
+            ShoppingCart cart = new ShoppingCart();
+            cart.addItem(new CartItem(inventoryManager.findItemByName("Big Mac"),
+                    inventoryManager.findItemByName("Frites"), inventoryManager.findItemByName("Coca-Cola")));
+            cart.addItem(new CartItem(inventoryManager.findItemByName("Frites")));
+            
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread worker = new Thread(() -> {
+                    awaitQuietly(start);
+                    for (int i = 0; i < ordersPerThread; i++) {
+                        if (!path.process(cart)) {
+                            throw new IllegalStateException("Erreur: Commande refusée");
+                        }
+                    }
+                });
+                worker.start();
+                workers.add(worker);
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsed = System.nanoTime() - begin;
+            best = Math.max(best, (double) threads * ordersPerThread * 1_000_000_000L / elapsed);
+        }
+        return best;
+    }
+    
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
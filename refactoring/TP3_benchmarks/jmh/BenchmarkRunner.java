@@ -0,0 +1,39 @@
+package jmh;
+
+import java.io.File;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Lance CatalogBenchmark et OrderPathBenchmark pour plusieurs nombres de threads
+ * Écrit un rapport JSON par nombre de threads : target/jmh/order-path-&lt;threads&gt;-threads.json
+ *
+ * Usage : java -cp target/benchmarks.jar jmh.BenchmarkRunner [nombres de threads...]   (défaut : 1 4 16)
+ */
+public class BenchmarkRunner {
+    private static final int[] DEFAULT_THREAD_COUNTS = {1, 4, 16};
+    
+    public static void main(String[] args) throws RunnerException {
+        int[] threadCounts = args.length == 0
+                ? DEFAULT_THREAD_COUNTS
+                : Stream.of(args).mapToInt(Integer::parseInt).toArray();
+        File reports = new File("target/jmh");
+        reports.mkdirs();
+        
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                    .include(CatalogBenchmark.class.getName())
+                    .include(OrderPathBenchmark.class.getName())
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(reports, "order-path-" + threads + "-threads.json").getPath())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recherche par nom (InventoryManager.findItemByName) selon la taille du catalogue
+ * Le nombre de threads se choisit au lancement (BenchmarkRunner ou l'option -t de JMH)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogBenchmark {
+    
+    @State(Scope.Benchmark)
+    public static class CatalogState {
+        @Param({"10", "1000", "100000"})
+        public int catalogSize;
+        
+        OrderPath.Catalog catalog;
+        
+        @Setup
+        public void setUp() throws ReflectiveOperationException {
+            catalog = OrderPath.newCatalog(catalogSize);
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class ClientState {
+        OrderPath.Client client;
+        
+        @Setup
+        public void setUp(CatalogState catalogState) {
+            client = catalogState.catalog.newClient(1, Thread.currentThread().threadId());
+        }
+    }
+    
+    @Benchmark
+    public Object findItemByName(ClientState state) {
+        return state.client.findItemByName();
+    }
+}
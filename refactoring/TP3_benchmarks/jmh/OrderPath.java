@@ -0,0 +1,43 @@
+package jmh;
+
+/**
+ * Chemin de commande de TP3_code vu depuis les benchmarks JMH
+ * JMH refuse les benchmarks du paquetage par défaut, et un paquetage nommé ne peut pas utiliser les classes
+ * du paquetage par défaut : OrderPathFixture (paquetage par défaut) implémente ces interfaces, et n'est
+ * chargé qu'une fois par réflexion; les appels mesurés sont ensuite des appels d'interface ordinaires
+ */
+public interface OrderPath {
+    
+    /**
+     * Inventaire partagé par tous les threads d'un benchmark
+     */
+    interface Catalog {
+        Client newClient(int cartSize, long seed);
+        
+        /**
+         * Remet le stock de chaque item au niveau initial (entre deux itérations)
+         */
+        void restock();
+    }
+    
+    /**
+     * Une caisse : son panier, son affichage et ses noms à chercher, propres à un thread
+     */
+    interface Client {
+        Object findItemByName();
+        
+        long calculateTotal();
+        
+        long sumLinePrices();
+        
+        boolean validateCartStock();
+        
+        boolean processOrder();
+        
+        void displayReceipt();
+    }
+    
+    static Catalog newCatalog(int catalogSize) throws ReflectiveOperationException {
+        return (Catalog) Class.forName("OrderPathFixture").getConstructor(int.class).newInstance(catalogSize);
+    }
+}
@@ -0,0 +1,85 @@
+package jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Chemin d'une commande, de la ligne de panier au reçu, selon la taille du catalogue et du panier
+ * Chaque thread a son panier; le stock est partagé, donc processOrder mesure aussi la contention
+ * Le nombre de threads se choisit au lancement (BenchmarkRunner ou l'option -t de JMH)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderPathBenchmark {
+    
+    @State(Scope.Benchmark)
+    public static class CatalogState {
+        @Param({"10", "1000", "100000"})
+        public int catalogSize;
+        
+        OrderPath.Catalog catalog;
+        
+        @Setup(Level.Trial)
+        public void setUp() throws ReflectiveOperationException {
+            catalog = OrderPath.newCatalog(catalogSize);
+        }
+        
+        @Setup(Level.Iteration)
+        public void restock() {
+            catalog.restock();
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class ClientState {
+        @Param({"1", "10", "100"})
+        public int cartSize;
+        
+        OrderPath.Client client;
+        
+        @Setup(Level.Trial)
+        public void setUp(CatalogState catalogState) {
+            client = catalogState.catalog.newClient(cartSize, Thread.currentThread().threadId());
+        }
+    }
+    
+    @Benchmark
+    public long calculateTotal(ClientState state) {
+        return state.client.calculateTotal();
+    }
+    
+    @Benchmark
+    public long cartItemGetPrice(ClientState state) {
+        return state.client.sumLinePrices();
+    }
+    
+    @Benchmark
+    public boolean validateCartStock(ClientState state) {
+        return state.client.validateCartStock();
+    }
+    
+    @Benchmark
+    public boolean processOrder(ClientState state) {
+        return state.client.processOrder();
+    }
+    
+    @Benchmark
+    public void displayReceipt(ClientState state) {
+        state.client.displayReceipt();
+    }
+}
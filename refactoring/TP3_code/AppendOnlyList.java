@@ -0,0 +1,49 @@
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Liste à laquelle on ne fait qu'ajouter, lisible sans verrou pendant les ajouts
+ * Un ajout coûte O(1) amorti (le tableau double quand il est plein) au lieu de recopier toute la liste
+ * comme CopyOnWriteArrayList; les lecteurs voient toujours un préfixe complet des éléments ajoutés
+ * Un seul thread à la fois peut ajouter : l'appelant synchronise les écritures
+ */
+public final class AppendOnlyList<E> {
+    private volatile Object[] elements = new Object[16];
+    private volatile int size;  // publié après l'élément : un lecteur qui voit size voit les éléments avant
+    
+    public void add(E element) {
+        Object[] current = elements;
+        int count = size;
+        if (count == current.length) {
+            current = Arrays.copyOf(current, count * 2);
+            elements = current;
+        }
+        current[count] = element;
+        size = count + 1;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        int count = size;
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Erreur: Index invalide: " + index);
+        }
+        return (E) elements[index];
+    }
+    
+    /**
+     * Ajoute à target tous les éléments présents au moment de l'appel, dans l'ordre
+     */
+    @SuppressWarnings("unchecked")
+    public void copyTo(Collection<? super E> target) {
+        int count = size;
+        Object[] current = elements;
+        for (int i = 0; i < count; i++) {
+            target.add((E) current[i]);
+        }
+    }
+}
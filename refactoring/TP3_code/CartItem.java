@@ -2,6 +2,8 @@
  * Représente un item dans le panier (peut être un item simple ou un trio)
  */
 public class CartItem {
+    private static final int TRIO_DISCOUNT_PERCENT = 15;
+    
     private Item item;
     private boolean isTrio;
     private Item trioSnack;  // Si c'est un trio
@@ -40,12 +42,19 @@ public class CartItem {
     }
     
     // Calculer le prix
-    public double getPrice() {
+    public Money getPrice() {
+        return isTrio ? Money.ofCents(getPriceCents()) : item.getPrice();
+    }
+    
+    /**
+     * Prix de la ligne en cents, calculé sans créer de Money (pour les totaux)
+     */
+    public long getPriceCents() {
         if (isTrio) {
-            double total = item.getPrice() + trioSnack.getPrice() + trioDrink.getPrice();
-            return Math.round(total * 0.85 * 100.0) / 100.0; // 15% rabais, arrondi à 2 décimales
+            long total = item.getPrice().getCents() + trioSnack.getPrice().getCents() + trioDrink.getPrice().getCents();
+            return Money.discountCents(total, TRIO_DISCOUNT_PERCENT); // 15% rabais, arrondi au cent
         } else {
-            return Math.round(item.getPrice() * 100.0) / 100.0;
+            return item.getPrice().getCents();
         }
     }
     
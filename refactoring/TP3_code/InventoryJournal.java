@@ -0,0 +1,547 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.ToLongFunction;
+import java.util.zip.CRC32C;
+
+/**
+ * Persistance de l'inventaire et des numéros de commande
+ * Journal en ajout seul (write-ahead log) avec fsync groupé, plus des instantanés compacts périodiques
+ *
+ * Format d'un enregistrement : [int longueur][int CRC32C][byte type][contenu], le CRC couvrant type et contenu
+ * Un enregistrement incomplet ou corrompu en fin de journal (arrêt brutal) est ignoré à la relecture
+ *
+ * Le stock des items d'un catalogue mappé est journalisé comme les autres, mais l'instantané le reporte dans
+ * le fichier mappé plutôt que dans le sien; chaque enregistrement du fichier note la génération du journal qui
+ * suit ce report, pour que la relecture ne rejoue pas deux fois un changement déjà inclus
+ */
+public class InventoryJournal implements AutoCloseable {
+    private static final String SNAPSHOT_FILE = "inventory.snapshot";
+    private static final String JOURNAL_FILE = "inventory.journal";
+    private static final int HEADER_SIZE = Long.BYTES; // génération du journal
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + Integer.BYTES; // longueur et CRC
+    
+    private static final byte ITEM_ADDED = 1;
+    private static final byte STOCK_CHANGED = 2;
+    private static final byte ORDER_NUMBER = 3;
+    
+    private final Path directory;
+    private final FileChannel journal;
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private final Object appendLock = new Object();
+    private final Object flushLock = new Object();
+    private ScheduledExecutorService checkpointScheduler;
+    
+    private long generation;
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);  // protégé par appendLock
+    private ByteBuffer spare = ByteBuffer.allocate(64 * 1024);    // protégé par flushLock
+    private long appendedSeq;                                      // protégé par appendLock
+    private volatile long durableSeq;
+    private volatile long recordsSinceCheckpoint;
+    private volatile IOException failure;                          // écrit sous flushLock, définitif
+    
+    private InventoryManager inventoryManager;
+    private OrderService orderService;
+    
+    private InventoryJournal(Path directory, FileChannel journal, long generation) {
+        this.directory = directory;
+        this.journal = journal;
+        this.generation = generation;
+    }
+    
+    /**
+     * Ouvre (ou crée) le journal dans un répertoire
+     * @param directory le répertoire de données
+     * @return le journal ouvert, positionné à la fin
+     * @throws IOException si le répertoire ou les fichiers sont inaccessibles
+     */
+    public static InventoryJournal open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel channel = FileChannel.open(directory.resolve(JOURNAL_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        
+        long generation = 0;
+        if (channel.size() >= HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            generation = header.getLong();
+        } else {
+            writeHeader(channel, generation);
+        }
+        channel.position(channel.size());
+        return new InventoryJournal(directory, channel, generation);
+    }
+    
+    /**
+     * Recharge l'instantané puis rejoue le journal
+     * Doit être appelé avant attach, sur un inventaire vide
+     * @return true si un état sauvegardé a été trouvé, false si le répertoire était vide
+     */
+    public boolean recover(InventoryManager inventoryManager, OrderService orderService) throws IOException {
+        boolean foundState = false;
+        long snapshotGeneration = -1;
+        
+        Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshotPath)) {
+            ByteBuffer snapshot = ByteBuffer.wrap(Files.readAllBytes(snapshotPath));
+            snapshotGeneration = snapshot.getLong();
+            int snapshotEnd = Long.BYTES + replay(snapshot, snapshotGeneration, inventoryManager, orderService);
+            if (snapshotEnd != snapshot.limit()) {
+                throw new IOException("Erreur: Instantané d'inventaire corrompu: " + snapshotPath);
+            }
+            foundState = true;
+        }
+        
+        // Un journal plus ancien que l'instantané y est déjà inclus
+        if (generation >= snapshotGeneration) {
+            ByteBuffer records = ByteBuffer.allocate((int) (journal.size() - HEADER_SIZE));
+            while (records.hasRemaining() && journal.read(records, HEADER_SIZE + records.position()) >= 0) {
+                // lecture jusqu'à la fin du fichier
+            }
+            records.flip();
+            int validEnd = replay(records, generation, inventoryManager, orderService);
+            if (validEnd > 0) {
+                foundState = true;
+            }
+            journal.truncate(HEADER_SIZE + validEnd);
+            journal.position(HEADER_SIZE + validEnd);
+        } else {
+            resetJournal(snapshotGeneration);
+        }
+        return foundState;
+    }
+    
+    /**
+     * Branche le journal sur l'inventaire et le service de commandes
+     * Un instantané est écrit immédiatement, ce qui compacte le journal rejoué et sauvegarde
+     * un inventaire initialisé hors journal (ex: inventaire par défaut)
+     * À partir de ce moment, chaque changement est écrit au journal avant d'être confirmé
+     * @param checkpointIntervalSeconds intervalle entre deux instantanés automatiques (0 pour désactiver)
+     */
+    public void attach(InventoryManager inventoryManager, OrderService orderService, long checkpointIntervalSeconds)
+            throws IOException {
+        this.inventoryManager = inventoryManager;
+        this.orderService = orderService;
+        checkpoint();
+        inventoryManager.setJournal(this);
+        
+        if (checkpointIntervalSeconds > 0) {
+            checkpointScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "inventory-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checkpointScheduler.scheduleWithFixedDelay(this::checkpointIfNeeded,
+                    checkpointIntervalSeconds, checkpointIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+    
+    /**
+     * Applique un changement et l'écrit au journal sans qu'un instantané puisse s'intercaler,
+     * puis attend que l'écriture soit durable
+     * Si l'écriture échoue, le changement reste appliqué en mémoire mais le journal passe hors service :
+     * ce changement et tous les suivants sont refusés par une UncheckedIOException
+     * @param change le changement, qui retourne false s'il n'a pas eu lieu
+     * @param entry l'écriture au journal, qui retourne son numéro de séquence
+     * @return le résultat du changement
+     */
+    public boolean record(BooleanSupplier change, ToLongFunction<InventoryJournal> entry) {
+        long seq;
+        Lock lock = checkpointLock.readLock();
+        lock.lock();
+        try {
+            checkWritable();
+            if (!change.getAsBoolean()) {
+                return false;
+            }
+            seq = entry.applyAsLong(this);
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(seq);
+        return true;
+    }
+    
+    public long logItemAdded(Item item) {
+        byte[] name = encode(item.getName());
+        byte[] type = encode(item.getType());
+        byte[] size = item.getSize() == null ? null : encode(item.getSize());
+        int length = 1 + stringSize(name) + Long.BYTES + Integer.BYTES + stringSize(type) + stringSize(size);
+        synchronized (appendLock) {
+            int start = reserve(length);
+            pending.put(ITEM_ADDED);
+            putString(pending, name);
+            pending.putLong(item.getPrice().getCents());
+            pending.putInt(item.getStock());
+            putString(pending, type);
+            putString(pending, size);
+            return seal(start);
+        }
+    }
+    
+    public long logStockChange(String itemName, int delta) {
+        return logStockChanges(Map.of(itemName, delta));
+    }
+    
+    /**
+     * Écrit plusieurs variations de stock en un seul enregistrement, rejoué d'un bloc
+     * @param deltas la variation par nom d'item
+     * @return le numéro de séquence, ou 0 s'il n'y avait rien à écrire
+     */
+    public long logStockChanges(Map<String, Integer> deltas) {
+        if (deltas.isEmpty()) {
+            return 0;
+        }
+        byte[][] names = new byte[deltas.size()][];
+        int[] values = new int[deltas.size()];
+        int length = 1 + Integer.BYTES;
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+            names[i] = encode(entry.getKey());
+            values[i] = entry.getValue();
+            length += stringSize(names[i]) + Integer.BYTES;
+            i++;
+        }
+        synchronized (appendLock) {
+            int start = reserve(length);
+            pending.put(STOCK_CHANGED);
+            pending.putInt(names.length);
+            for (int j = 0; j < names.length; j++) {
+                putString(pending, names[j]);
+                pending.putInt(values[j]);
+            }
+            return seal(start);
+        }
+    }
+    
+    /**
+     * Note que les numéros de commande sont réservés jusqu'à orderNumber inclus; la relecture garde le plus grand
+     * Comme les autres écritures, doit passer par record pour ne pas se glisser pendant un instantané
+     */
+    public long logOrderNumber(int orderNumber) {
+        synchronized (appendLock) {
+            int start = reserve(1 + Integer.BYTES);
+            pending.put(ORDER_NUMBER);
+            pending.putInt(orderNumber);
+            return seal(start);
+        }
+    }
+    
+    /**
+     * Attend que l'enregistrement soit sur disque
+     * Le premier thread arrivé écrit et synchronise tout ce qui est en attente (commit groupé)
+     * Si l'écriture échoue, le journal passe hors service pour de bon : après un fsync raté, on ne sait plus
+     * ce qui est sur disque, et réessayer pourrait confirmer des enregistrements perdus
+     */
+    public void awaitDurable(long seq) {
+        if (durableSeq >= seq) {
+            return;
+        }
+        synchronized (flushLock) {
+            if (durableSeq >= seq) {
+                return;
+            }
+            checkWritable();
+            ByteBuffer toWrite;
+            long upTo;
+            synchronized (appendLock) {
+                toWrite = pending;
+                pending = spare;
+                upTo = appendedSeq;
+            }
+            try {
+                toWrite.flip();
+                while (toWrite.hasRemaining()) {
+                    journal.write(toWrite);
+                }
+                journal.force(false);
+            } catch (IOException e) {
+                failure = e;
+                throw new UncheckedIOException("Erreur: Impossible d'écrire le journal d'inventaire.", e);
+            }
+            toWrite.clear();
+            spare = toWrite;
+            recordsSinceCheckpoint += upTo - durableSeq;
+            durableSeq = upTo;
+        }
+    }
+    
+    /**
+     * Écrit un instantané compact de l'inventaire et vide le journal
+     * Les changements en cours sont brièvement suspendus pendant l'opération
+     */
+    public void checkpoint() throws IOException {
+        Lock lock = checkpointLock.writeLock();
+        lock.lock();
+        try {
+            long lastSeq;
+            synchronized (appendLock) {
+                lastSeq = appendedSeq;
+            }
+            awaitDurable(lastSeq);
+            
+            // Le catalogue mappé doit être sur disque avant que l'instantané ne rende le journal inutile
+            long nextGeneration = generation + 1;
+            inventoryManager.saveMappedStock(nextGeneration);
+            writeSnapshot(nextGeneration);
+            resetJournal(nextGeneration);
+            recordsSinceCheckpoint = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @return true si une écriture a échoué : le journal refuse alors tout nouveau changement
+     */
+    public boolean isFailed() {
+        return failure != null;
+    }
+    
+    /**
+     * Écrit un dernier instantané, sauf si le journal est hors service, puis ferme le fichier
+     * Un instantané automatique en cours est attendu avant la fermeture
+     */
+    @Override
+    public void close() throws IOException {
+        if (checkpointScheduler != null) {
+            checkpointScheduler.close();
+        }
+        try {
+            if (inventoryManager != null && !isFailed()) {
+                checkpoint();
+            }
+        } finally {
+            if (inventoryManager != null) {
+                inventoryManager.setJournal(null);
+            }
+            journal.close();
+        }
+    }
+    
+    private void checkWritable() {
+        IOException cause = failure;
+        if (cause != null) {
+            throw new UncheckedIOException("Erreur: Le journal d'inventaire est hors service.", cause);
+        }
+    }
+    
+    private void checkpointIfNeeded() {
+        if (recordsSinceCheckpoint == 0 || isFailed()) {
+            return;
+        }
+        try {
+            checkpoint();
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("ERREUR: Instantané d'inventaire impossible: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * L'instantané ne contient que les items ajoutés : le stock du catalogue mappé est déjà dans son fichier
+     */
+    private void writeSnapshot(long snapshotGeneration) throws IOException {
+        List<Item> items = inventoryManager.getAddedItems();
+        
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        buffer.putLong(snapshotGeneration);
+        for (Item item : items) {
+            byte[] name = encode(item.getName());
+            byte[] type = encode(item.getType());
+            byte[] size = item.getSize() == null ? null : encode(item.getSize());
+            int length = 1 + stringSize(name) + Long.BYTES + Integer.BYTES + stringSize(type) + stringSize(size);
+            buffer = ensureCapacity(buffer, RECORD_HEADER_SIZE + length);
+            int start = buffer.position();
+            buffer.putInt(length);
+            buffer.putInt(0);
+            buffer.put(ITEM_ADDED);
+            putString(buffer, name);
+            buffer.putLong(item.getPrice().getCents());
+            buffer.putInt(item.getStock());
+            putString(buffer, type);
+            putString(buffer, size);
+            putChecksum(buffer, start);
+        }
+        buffer = ensureCapacity(buffer, RECORD_HEADER_SIZE + 1 + Integer.BYTES);
+        int start = buffer.position();
+        buffer.putInt(1 + Integer.BYTES);
+        buffer.putInt(0);
+        buffer.put(ORDER_NUMBER);
+        buffer.putInt(orderService.peekNextOrderNumber() - 1);
+        putChecksum(buffer, start);
+        buffer.flip();
+        
+        Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    private void resetJournal(long newGeneration) throws IOException {
+        // Aucune écriture groupée ne doit atterrir dans l'ancien journal pendant qu'il est vidé
+        synchronized (flushLock) {
+            try {
+                journal.truncate(0);
+                writeHeader(journal, newGeneration);
+                journal.position(HEADER_SIZE);
+            } catch (IOException e) {
+                failure = e; // position et contenu du journal inconnus
+                throw e;
+            }
+            generation = newGeneration;
+        }
+    }
+    
+    private static void writeHeader(FileChannel channel, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(generation);
+        header.flip();
+        channel.write(header, 0);
+        channel.force(true);
+    }
+    
+    /**
+     * Rejoue les enregistrements complets du tampon
+     * @param generation la génération du journal ou de l'instantané relu
+     * @return la position juste après le dernier enregistrement complet
+     */
+    private static int replay(ByteBuffer records, long generation, InventoryManager inventoryManager,
+                              OrderService orderService) {
+        int start = records.position();
+        int validEnd = start;
+        while (records.remaining() >= RECORD_HEADER_SIZE) {
+            int length = records.getInt();
+            int checksum = records.getInt();
+            if (length <= 0 || length > records.remaining()
+                    || checksum != checksum(records.slice(records.position(), length))) {
+                break;
+            }
+            byte type = records.get();
+            switch (type) {
+                case ITEM_ADDED: {
+                    String name = getString(records);
+                    long priceCents = records.getLong();
+                    int stock = records.getInt();
+                    String itemType = getString(records);
+                    String size = getString(records);
+                    inventoryManager.addItem(new Item(name, Money.ofCents(priceCents), stock, itemType, size));
+                    break;
+                }
+                case STOCK_CHANGED: {
+                    int count = records.getInt();
+                    for (int i = 0; i < count; i++) {
+                        Item item = inventoryManager.findItemByName(getString(records));
+                        int delta = records.getInt();
+                        if (item == null || item.isSavedAfter(generation)) {
+                            continue; // déjà inclus dans le fichier mappé par un instantané interrompu
+                        }
+                        if (delta > 0) {
+                            item.addStock(delta);
+                        } else {
+                            item.removeStock(-delta);
+                        }
+                    }
+                    inventoryManager.markChanged();
+                    break;
+                }
+                case ORDER_NUMBER: {
+                    int orderNumber = records.getInt();
+                    if (orderNumber >= orderService.peekNextOrderNumber()) {
+                        orderService.setNextOrderNumber(orderNumber + 1);
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Erreur: Enregistrement de journal inconnu: " + type);
+            }
+            validEnd = records.position();
+        }
+        return validEnd - start;
+    }
+    
+    /**
+     * Réserve la place d'un enregistrement dans le tampon en attente (avec appendLock)
+     * @return la position de début de l'enregistrement, à passer à seal une fois le contenu écrit
+     */
+    private int reserve(int length) {
+        pending = ensureCapacity(pending, RECORD_HEADER_SIZE + length);
+        int start = pending.position();
+        pending.putInt(length);
+        pending.putInt(0);
+        return start;
+    }
+    
+    private long seal(int start) {
+        putChecksum(pending, start);
+        return ++appendedSeq;
+    }
+    
+    private static void putChecksum(ByteBuffer buffer, int start) {
+        int contentStart = start + RECORD_HEADER_SIZE;
+        buffer.putInt(start + Integer.BYTES, checksum(buffer.slice(contentStart, buffer.position() - contentStart)));
+    }
+    
+    private static int checksum(ByteBuffer content) {
+        CRC32C crc = new CRC32C();
+        crc.update(content);
+        return (int) crc.getValue();
+    }
+    
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int needed) {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+    
+    private static byte[] encode(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static int stringSize(byte[] value) {
+        return Short.BYTES + (value == null ? 0 : value.length);
+    }
+    
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) value.length);
+            buffer.put(value);
+        }
+    }
+    
+    private static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -1,74 +1,320 @@
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BooleanSupplier;
+import java.util.function.ToLongFunction;
 
 /**
  * Gère les opérations sur l'inventaire des items
+ * Les items sont indexés par nom et par type pour éviter les parcours complets du catalogue
+ *
+ * Tous les changements de stock passent par le journal : les items du fichier mappé (catalogue) y reprennent
+ * le stock du dernier instantané, que le journal rejoue ensuite comme pour les items ajoutés
  */
 public class InventoryManager {
-    private ArrayList<Item> inventory;
+    private AppendOnlyList<Item> inventory;              // items ajoutés, dans l'ordre d'ajout, après ceux du catalogue
+    private ConcurrentHashMap<String, Item> itemsByName;
+    private ConcurrentHashMap<String, AppendOnlyList<Item>> itemsByType;
+    private AtomicLong version;                          // incrémentée à chaque changement d'inventaire, stock compris
+    private AtomicLong catalogVersion;                   // incrémentée seulement quand la liste des items change
+    private AtomicLong snapshotClaim;                    // plus grande version de la vue réclamée par un lecteur
+    private AtomicReference<MenuSnapshot> menuSnapshot;
+    private volatile InventoryJournal journal;           // null si l'inventaire n'est pas persisté
+    private volatile MappedInventoryFile mappedFile;     // catalogue dont les items sont créés à la demande, null si aucun
+    private volatile AtomicReferenceArray<Item> mappedItems;        // item déjà créé par enregistrement du catalogue
+    private volatile Map<String, List<Item>> mappedItemsByType;     // null tant que le catalogue n'est pas chargé
     
     public InventoryManager() {
-        this.inventory = new ArrayList<>();
+        this.inventory = new AppendOnlyList<>();
+        this.itemsByName = new ConcurrentHashMap<>();
+        this.itemsByType = new ConcurrentHashMap<>();
+        this.version = new AtomicLong();
+        this.catalogVersion = new AtomicLong();
+        this.snapshotClaim = new AtomicLong();
+        this.menuSnapshot = new AtomicReference<>(new MenuSnapshot(0, new ArrayList<>()));
     }
     
     public void initializeDefaultInventory() {
-        inventory.add(new Item("Big Mac", 6.99, 50, "main"));
-        inventory.add(new Item("Quarter Pounder", 7.49, 40, "main"));
-        inventory.add(new Item("McChicken", 5.99, 45, "main"));
-        inventory.add(new Item("Frites", 3.49, 100, "snack"));
-        inventory.add(new Item("Nuggets (6)", 4.99, 60, "snack"));
-        inventory.add(new Item("Coca-Cola", 2.49, 80, "drink", "Medium"));
-        inventory.add(new Item("Sprite", 2.49, 70, "drink", "Medium"));
-        inventory.add(new Item("Jus d'orange", 2.99, 50, "drink", "Medium"));
+        for (Item item : createDefaultItems()) {
+            addItem(item);
+        }
+    }
+    
+    /**
+     * Items du menu de base, par exemple pour écrire un premier catalogue
+     */
+    public static List<Item> createDefaultItems() {
+        return List.of(
+                new Item("Big Mac", 6.99, 50, "main"),
+                new Item("Quarter Pounder", 7.49, 40, "main"),
+                new Item("McChicken", 5.99, 45, "main"),
+                new Item("Frites", 3.49, 100, "snack"),
+                new Item("Nuggets (6)", 4.99, 60, "snack"),
+                new Item("Coca-Cola", 2.49, 80, "drink", "Medium"),
+                new Item("Sprite", 2.49, 70, "drink", "Medium"),
+                new Item("Jus d'orange", 2.99, 50, "drink", "Medium"));
+    }
+    
+    /**
+     * Utilise un fichier d'inventaire mappé comme catalogue, placé avant les items ajoutés
+     * Doit être appelé au démarrage, avant la relecture du journal et tout ajout d'item
+     * Les items sont créés seulement quand on les cherche par nom ou par position, ou tous d'un coup
+     * au premier affichage du catalogue; leur stock est celui du fichier, mis à jour à chaque instantané du journal
+     * @param file le fichier ouvert
+     */
+    public synchronized void openMappedFile(MappedInventoryFile file) {
+        this.mappedItems = new AtomicReferenceArray<>(file.size());
+        this.mappedItemsByType = null;
+        this.mappedFile = file;
+        markCatalogChanged();
+    }
+    
+    public MappedInventoryFile getMappedFile() {
+        return mappedFile;
     }
     
     public ArrayList<Item> getAllItems() {
-        return new ArrayList<>(inventory);
+        loadMappedFile();
+        MappedInventoryFile file = mappedFile;
+        ArrayList<Item> items = new ArrayList<>((file == null ? 0 : file.size()) + inventory.size());
+        for (int record = 0; file != null && record < file.size(); record++) {
+            items.add(mappedItems.get(record));
+        }
+        inventory.copyTo(items);
+        return items;
     }
     
     public ArrayList<Item> getItemsByType(String type) {
-        ArrayList<Item> filteredItems = new ArrayList<>();
-        for (Item item : inventory) {
-            if (item.getType().equals(type)) {
-                filteredItems.add(item);
+        loadMappedFile();
+        ArrayList<Item> items = new ArrayList<>();
+        Map<String, List<Item>> mappedByType = mappedItemsByType;
+        if (mappedByType != null) {
+            items.addAll(mappedByType.getOrDefault(type, List.of()));
+        }
+        AppendOnlyList<Item> itemsOfType = itemsByType.get(type);
+        if (itemsOfType != null) {
+            itemsOfType.copyTo(items);
+        }
+        return items;
+    }
+    
+    /**
+     * Items ajoutés hors catalogue mappé, ceux que l'instantané du journal recrée
+     * Ne charge pas le catalogue
+     */
+    public ArrayList<Item> getAddedItems() {
+        ArrayList<Item> items = new ArrayList<>(inventory.size());
+        inventory.copyTo(items);
+        return items;
+    }
+    
+    /**
+     * Vue immuable et partagée du menu, reconstruite seulement si la liste des items a changé
+     * Les items de la vue sont les objets vivants : un changement de stock n'oblige pas à la reconstruire
+     * Un seul lecteur reconstruit une version donnée; les autres attendent qu'il la publie, sans verrou,
+     * et ne bloquent jamais les modifications
+     * @return la vue correspondant à la version courante du catalogue
+     */
+    public MenuSnapshot getMenuSnapshot() {
+        loadMappedFile();
+        while (true) {
+            MenuSnapshot current = menuSnapshot.get();
+            long currentVersion = catalogVersion.get();
+            if (current.getVersion() >= currentVersion) {
+                return current;
+            }
+            long claimed = snapshotClaim.get();
+            if (claimed < currentVersion && snapshotClaim.compareAndSet(claimed, currentVersion)) {
+                return buildMenuSnapshot(currentVersion);
             }
+            Thread.yield(); // un autre lecteur construit déjà cette version
         }
-        return filteredItems;
     }
     
     public Item getItemByIndex(int index) {
-        if (index >= 0 && index < inventory.size()) {
-            return inventory.get(index);
+        MappedInventoryFile file = mappedFile;
+        int mappedCount = file == null ? 0 : file.size();
+        if (index >= 0 && index < mappedCount) {
+            return mappedItem(file, index);
+        }
+        if (index >= mappedCount && index < mappedCount + inventory.size()) {
+            return inventory.get(index - mappedCount);
         }
         return null;
     }
     
     public Item findItemByName(String itemName) {
-        for (Item item : inventory) {
-            if (item.getName().equals(itemName)) {
-                return item;
+        if (itemName == null) {
+            return null;
+        }
+        Item item = itemsByName.get(itemName);
+        MappedInventoryFile file = mappedFile;
+        if (item == null && file != null && mappedItemsByType == null) {
+            int record = file.find(itemName);
+            if (record >= 0) {
+                item = mappedItem(file, record);
             }
         }
-        return null;
+        return item;
     }
     
-    public void addItem(Item item) {
-        inventory.add(item);
+    /**
+     * Ajoute un item à l'inventaire et met à jour les index
+     * Si un item du même nom existe déjà, la recherche par nom continue de retourner le premier
+     * Synchronisé : les listes en ajout seul n'acceptent qu'un écrivain à la fois
+     * @param item l'item à ajouter
+     */
+    public synchronized void addItem(Item item) {
+        findItemByName(item.getName()); // un item du fichier mappé garde la priorité
+        applyChange(() -> {
+            inventory.add(item);
+            itemsByName.putIfAbsent(item.getName(), item);
+            itemsByType.computeIfAbsent(item.getType(), type -> new AppendOnlyList<>()).add(item);
+            return true;
+        }, currentJournal -> currentJournal.logItemAdded(item));
+        markCatalogChanged();
     }
     
     public void addStock(String itemName, int quantity) {
         Item item = findItemByName(itemName);
-        if (item != null) {
-            item.addStock(quantity);
+        if (item != null && quantity > 0) {
+            applyChange(() -> {
+                item.addStock(quantity);
+                return true;
+            }, currentJournal -> currentJournal.logStockChange(itemName, quantity));
         }
     }
     
     public boolean removeStock(String itemName, int quantity) {
         Item item = findItemByName(itemName);
-        if (item != null && item.getStock() >= quantity) {
-            item.removeStock(quantity);
-            return true;
+        return item != null && applyChange(() -> item.removeStock(quantity),
+                currentJournal -> currentJournal.logStockChange(itemName, -quantity));
+    }
+    
+    /**
+     * Applique un changement d'inventaire, l'écrit au journal s'il y en a un, puis invalide les vues du menu
+     * @param change le changement, qui retourne false s'il n'a pas eu lieu
+     * @param entry l'écriture au journal correspondante (0 si rien n'est à écrire)
+     * @return le résultat du changement
+     */
+    public boolean applyChange(BooleanSupplier change, ToLongFunction<InventoryJournal> entry) {
+        InventoryJournal currentJournal = journal;
+        boolean changed = currentJournal == null ? change.getAsBoolean() : currentJournal.record(change, entry);
+        if (changed) {
+            markChanged();
+        }
+        return changed;
+    }
+    
+    /**
+     * Construit la vue d'une version réclamée et la publie, sauf si une vue plus récente l'a devancée
+     * En cas d'échec, la réclamation est rendue pour qu'un autre lecteur puisse reprendre la construction
+     */
+    private MenuSnapshot buildMenuSnapshot(long snapshotVersion) {
+        MenuSnapshot built;
+        try {
+            built = new MenuSnapshot(snapshotVersion, getAllItems());
+        } catch (RuntimeException | Error e) {
+            snapshotClaim.compareAndSet(snapshotVersion, menuSnapshot.get().getVersion());
+            throw e;
         }
-        return false;
+        return menuSnapshot.accumulateAndGet(built,
+                (current, candidate) -> candidate.getVersion() > current.getVersion() ? candidate : current);
+    }
+    
+    /**
+     * Item d'un enregistrement du catalogue, créé une seule fois puis indexé par nom
+     * Un item du catalogue garde la priorité sur un item ajouté du même nom
+     */
+    private Item mappedItem(MappedInventoryFile file, int record) {
+        Item item = mappedItems.get(record);
+        if (item == null) {
+            Item created = file.itemAt(record);
+            item = mappedItems.compareAndExchange(record, null, created);
+            if (item == null) {
+                item = created;
+                itemsByName.put(item.getName(), item);
+            }
+        }
+        return item;
+    }
+    
+    /**
+     * Crée tous les items du catalogue qui ne l'ont pas encore été et les regroupe par type
+     */
+    private void loadMappedFile() {
+        MappedInventoryFile file = mappedFile;
+        if (file == null || mappedItemsByType != null) {
+            return;
+        }
+        synchronized (this) {
+            if (mappedItemsByType != null) {
+                return;
+            }
+            Map<String, List<Item>> byType = new HashMap<>();
+            for (int record = 0; record < file.size(); record++) {
+                Item item = mappedItem(file, record);
+                byType.computeIfAbsent(item.getType(), type -> new ArrayList<>()).add(item);
+            }
+            mappedItemsByType = byType;
+            markChanged();
+        }
+    }
+    
+    /**
+     * Reporte dans le fichier mappé le stock des items du catalogue qui a changé, puis le force sur disque
+     * Seuls les items déjà créés ont pu changer; appelé par le journal pendant un instantané
+     * @param generation la génération du journal qui suivra l'instantané
+     */
+    public void saveMappedStock(long generation) {
+        MappedInventoryFile file = mappedFile;
+        if (file == null) {
+            return;
+        }
+        AtomicReferenceArray<Item> items = mappedItems;
+        for (int record = 0; record < items.length(); record++) {
+            Item item = items.get(record);
+            if (item != null) {
+                item.saveStock(generation);
+            }
+        }
+        file.force();
+    }
+    
+    public InventoryJournal getJournal() {
+        return journal;
+    }
+    
+    public void setJournal(InventoryJournal journal) {
+        this.journal = journal;
+    }
+    
+    /**
+     * Version courante de l'inventaire, stock compris, utile pour savoir si un affichage précalculé
+     * (qui montre le stock) est encore valide
+     */
+    public long getVersion() {
+        return version.get();
+    }
+    
+    /**
+     * Signale un changement de stock fait directement sur les items (ex: commande confirmée)
+     */
+    public void markChanged() {
+        version.incrementAndGet();
+    }
+    
+    /**
+     * Signale un changement de la liste des items, une fois celui-ci visible
+     */
+    private void markCatalogChanged() {
+        catalogVersion.incrementAndGet();
+        markChanged();
     }
     
     public boolean hasStock(Item item) {
@@ -79,4 +325,3 @@ public class InventoryManager {
         return hasStock(main) && hasStock(snack) && hasStock(drink);
     }
 }
-
@@ -1,39 +1,71 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Représente un item du menu McDonald's
+ * Le stock est géré sans verrou (compare-and-set) pour supporter plusieurs caisses en parallèle
  */
 public class Item {
     private String name;
-    private double price;
-    private int stock;
+    private Money price;
+    private final AtomicInteger stock;     // stock disponible (réservations déjà déduites)
+    private final AtomicInteger reserved;  // unités réservées en attente de commit/release
+    private final MappedInventoryFile stockFile; // fichier où l'instantané reporte le stock, sinon null
+    private final int stockRecord;
     private String type; // "main", "snack", "drink"
     private String size; // pour drinks seulement
     
     public Item(String name, double price, int stock, String type) {
-        this.name = name;
-        this.price = price;
-        this.stock = stock;
-        this.type = type;
-        this.size = null;
+        this(name, Money.ofDollars(price), stock, type, null);
     }
     
     public Item(String name, double price, int stock, String type, String size) {
+        this(name, Money.ofDollars(price), stock, type, size);
+    }
+    
+    public Item(String name, Money price, int stock, String type) {
+        this(name, price, stock, type, null);
+    }
+    
+    public Item(String name, Money price, int stock, String type, String size) {
         this.name = name;
         this.price = price;
-        this.stock = stock;
+        this.stock = new AtomicInteger(stock);
+        this.reserved = new AtomicInteger(0);
+        this.stockFile = null;
+        this.stockRecord = -1;
         this.type = type;
         this.size = size;
     }
     
+    /**
+     * Item lu depuis un fichier d'inventaire mappé, qui donne le stock du dernier instantané
+     * Les changements suivants restent en mémoire jusqu'au prochain instantané (voir saveStock)
+     */
+    Item(MappedInventoryFile stockFile, int stockRecord) {
+        this.name = stockFile.getName(stockRecord);
+        this.price = stockFile.getPrice(stockRecord);
+        this.stock = new AtomicInteger(stockFile.getStock(stockRecord));
+        this.reserved = new AtomicInteger(0);
+        this.stockFile = stockFile;
+        this.stockRecord = stockRecord;
+        this.type = stockFile.getType(stockRecord);
+        this.size = stockFile.getSize(stockRecord);
+    }
+    
     public String getName() {
         return name;
     }
     
-    public double getPrice() {
+    public Money getPrice() {
         return price;
     }
     
     public int getStock() {
-        return stock;
+        return stock.get();
+    }
+    
+    public int getReservedStock() {
+        return reserved.get();
     }
     
     public String getType() {
@@ -46,17 +78,93 @@ public class Item {
     
     public void addStock(int quantity) {
         if (quantity > 0) {
-            this.stock += quantity;
+            stock.addAndGet(quantity);
+        }
+    }
+    
+    /**
+     * Retire du stock de manière atomique
+     * @param quantity la quantité à retirer
+     * @return true si le stock était suffisant et a été retiré, false sinon
+     */
+    public boolean removeStock(int quantity) {
+        return quantity > 0 && decrementIfAvailable(quantity);
+    }
+    
+    /**
+     * Réserve des unités sans jamais faire passer le stock sous zéro
+     * Les unités réservées ne sont plus disponibles jusqu'au release
+     * @param quantity la quantité à réserver
+     * @return true si la réservation a réussi, false si le stock est insuffisant
+     */
+    public boolean tryReserve(int quantity) {
+        if (quantity <= 0 || !decrementIfAvailable(quantity)) {
+            return false;
+        }
+        reserved.addAndGet(quantity);
+        return true;
+    }
+    
+    /**
+     * Confirme une réservation : les unités sont définitivement retirées du stock
+     * @param quantity la quantité précédemment réservée
+     */
+    public void commit(int quantity) {
+        if (quantity > 0) {
+            reserved.addAndGet(-quantity);
         }
     }
     
-    public void removeStock(int quantity) {
-        if (quantity > 0 && this.stock >= quantity) {
-            this.stock -= quantity;
+    /**
+     * Annule une réservation : les unités redeviennent disponibles
+     * @param quantity la quantité précédemment réservée
+     */
+    public void release(int quantity) {
+        if (quantity > 0) {
+            reserved.addAndGet(-quantity);
+            stock.addAndGet(quantity);
         }
     }
     
+    /**
+     * @return true si l'item vient d'un fichier d'inventaire mappé, qui garde son stock d'un instantané à l'autre
+     */
+    public boolean isMapped() {
+        return stockFile != null;
+    }
+    
     public boolean isInStock() {
-        return stock > 0;
+        return stock.get() > 0;
+    }
+    
+    /**
+     * Reporte le stock dans le fichier mappé s'il a changé depuis le dernier instantané
+     * Les unités réservées y restent comptées : une réservation n'atteint jamais le fichier
+     * Appelé pendant un instantané, quand aucun changement n'est en cours
+     * @param generation la génération du journal qui suivra l'instantané
+     */
+    void saveStock(long generation) {
+        int current = stock.get() + reserved.get();
+        if (current != stockFile.getStock(stockRecord)) {
+            stockFile.writeStock(stockRecord, current, generation);
+        }
+    }
+    
+    /**
+     * @return true si le fichier mappé inclut déjà les changements du journal de cette génération
+     */
+    boolean isSavedAfter(long generation) {
+        return stockFile != null && stockFile.getStockGeneration(stockRecord) > generation;
+    }
+    
+    private boolean decrementIfAvailable(int quantity) {
+        int current;
+        do {
+            current = stock.get();
+            if (current < quantity) {
+                return false;
+            }
+        } while (!stock.compareAndSet(current, current - quantity));
+        return true;
     }
 }
\ No newline at end of file
@@ -0,0 +1,286 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inventaire stocké dans un fichier à enregistrements de taille fixe, ouvert en mémoire mappée
+ * L'ouverture ne lit que l'en-tête : les items sont lus à la demande
+ * Le stock d'un enregistrement est celui du dernier instantané du journal qui l'a modifié, marqué de la
+ * génération du journal suivant; les changements plus récents sont dans le journal (voir InventoryJournal)
+ *
+ * Format (big-endian) :
+ *   en-tête     : magic, version, nombre d'items, nombre d'entrées du dictionnaire, position des textes
+ *   dictionnaire: [int position][int longueur] par entrée (types et tailles)
+ *   items       : 32 octets par item, dans l'ordre du catalogue
+ *                 [int position du nom][int longueur du nom][long prix en cents][int stock]
+ *                 [short code type][short code taille][long génération du stock]
+ *   index       : [int numéro d'item] par item, triés par nom (octets UTF-8) pour la recherche dichotomique
+ *   textes      : noms, types et tailles en UTF-8
+ */
+public final class MappedInventoryFile implements AutoCloseable {
+    private static final int MAGIC = 0x4D434449; // "MCDI"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 24;
+    private static final int DICTIONARY_ENTRY_SIZE = 8;
+    private static final int RECORD_SIZE = 32;
+    private static final int INDEX_ENTRY_SIZE = 4;
+    private static final short NO_SIZE = -1;
+    
+    private static final int NAME_OFFSET = 0;
+    private static final int NAME_LENGTH = 4;
+    private static final int PRICE = 8;
+    private static final int STOCK = 16;
+    private static final int TYPE_CODE = 20;
+    private static final int SIZE_CODE = 22;
+    private static final int STOCK_GENERATION = 24;
+    
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int itemCount;
+    private final int recordsStart;
+    private final int indexStart;
+    private final String[] dictionary;
+    
+    private MappedInventoryFile(FileChannel channel, MappedByteBuffer buffer, int itemCount,
+                                int recordsStart, String[] dictionary) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.itemCount = itemCount;
+        this.recordsStart = recordsStart;
+        this.indexStart = recordsStart + itemCount * RECORD_SIZE;
+        this.dictionary = dictionary;
+    }
+    
+    /**
+     * Écrit un fichier d'inventaire à partir d'une liste d'items
+     * @param path le fichier à créer (remplacé s'il existe)
+     * @param items les items à écrire, dans l'ordre du catalogue
+     * @throws IOException si l'écriture échoue
+     */
+    public static void write(Path path, List<Item> items) throws IOException {
+        List<byte[]> names = new ArrayList<>();
+        Map<String, Short> codes = new LinkedHashMap<>();
+        for (Item item : items) {
+            names.add(item.getName().getBytes(StandardCharsets.UTF_8));
+            codes.putIfAbsent(item.getType(), (short) codes.size());
+            if (item.getSize() != null) {
+                codes.putIfAbsent(item.getSize(), (short) codes.size());
+            }
+        }
+        List<Integer> byName = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            byName.add(i);
+        }
+        byName.sort(Comparator.comparing(names::get, Arrays::compareUnsigned));
+        
+        int recordsStart = HEADER_SIZE + align(codes.size() * DICTIONARY_ENTRY_SIZE);
+        int indexStart = recordsStart + items.size() * RECORD_SIZE;
+        int textStart = indexStart + items.size() * INDEX_ENTRY_SIZE;
+        int textSize = 0;
+        for (byte[] name : names) {
+            textSize += name.length;
+        }
+        List<byte[]> dictionaryTexts = new ArrayList<>();
+        for (String text : codes.keySet()) {
+            byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+            dictionaryTexts.add(encoded);
+            textSize += encoded.length;
+        }
+        
+        ByteBuffer out = ByteBuffer.allocate(textStart + textSize).order(ByteOrder.BIG_ENDIAN);
+        out.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(items.size()).putInt(codes.size()).putInt(textStart);
+        
+        int textPosition = textStart;
+        out.position(HEADER_SIZE);
+        for (byte[] text : dictionaryTexts) {
+            out.putInt(textPosition).putInt(text.length);
+            out.put(textPosition, text);
+            textPosition += text.length;
+        }
+        
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            byte[] name = names.get(i);
+            int record = recordsStart + i * RECORD_SIZE;
+            out.putInt(record + NAME_OFFSET, textPosition);
+            out.putInt(record + NAME_LENGTH, name.length);
+            out.putLong(record + PRICE, item.getPrice().getCents());
+            out.putInt(record + STOCK, item.getStock());
+            out.putShort(record + TYPE_CODE, codes.get(item.getType()));
+            out.putShort(record + SIZE_CODE, item.getSize() == null ? NO_SIZE : codes.get(item.getSize()));
+            out.put(textPosition, name);
+            textPosition += name.length;
+        }
+        for (int i = 0; i < byName.size(); i++) {
+            out.putInt(indexStart + i * INDEX_ENTRY_SIZE, byName.get(i));
+        }
+        
+        out.clear();
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                file.write(out);
+            }
+            file.force(true);
+        }
+    }
+    
+    /**
+     * Ouvre un fichier d'inventaire en mémoire mappée, sans lire les items
+     * @param path le fichier à ouvrir
+     * @return le fichier ouvert, en lecture et écriture
+     * @throws IOException si le fichier est illisible ou n'est pas un fichier d'inventaire
+     */
+    public static MappedInventoryFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("Erreur: Fichier d'inventaire invalide: " + path);
+            }
+            int itemCount = buffer.getInt(8);
+            int dictionarySize = buffer.getInt(12);
+            
+            String[] dictionary = new String[dictionarySize];
+            for (int i = 0; i < dictionarySize; i++) {
+                int entry = HEADER_SIZE + i * DICTIONARY_ENTRY_SIZE;
+                dictionary[i] = readText(buffer, buffer.getInt(entry), buffer.getInt(entry + 4));
+            }
+            int recordsStart = HEADER_SIZE + align(dictionarySize * DICTIONARY_ENTRY_SIZE);
+            return new MappedInventoryFile(channel, buffer, itemCount, recordsStart, dictionary);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    public int size() {
+        return itemCount;
+    }
+    
+    /**
+     * Recherche dichotomique d'un item par nom dans l'index, sans créer de chaîne
+     * @return le numéro d'enregistrement, ou -1 si le nom est absent
+     */
+    public int find(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = itemCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int record = buffer.getInt(indexStart + middle * INDEX_ENTRY_SIZE);
+            int comparison = compareName(record, key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return record;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Crée un item dont le stock reste dans le fichier
+     */
+    public Item itemAt(int record) {
+        return new Item(this, record);
+    }
+    
+    public String getName(int record) {
+        int position = recordPosition(record);
+        return readText(buffer, buffer.getInt(position + NAME_OFFSET), buffer.getInt(position + NAME_LENGTH));
+    }
+    
+    public Money getPrice(int record) {
+        return Money.ofCents(buffer.getLong(recordPosition(record) + PRICE));
+    }
+    
+    public String getType(int record) {
+        return dictionary[buffer.getShort(recordPosition(record) + TYPE_CODE)];
+    }
+    
+    public String getSize(int record) {
+        short code = buffer.getShort(recordPosition(record) + SIZE_CODE);
+        return code == NO_SIZE ? null : dictionary[code];
+    }
+    
+    public int getStock(int record) {
+        return buffer.getInt(recordPosition(record) + STOCK);
+    }
+    
+    /**
+     * Première génération du journal dont les changements de stock ne sont pas inclus dans l'enregistrement
+     * (0 pour un fichier jamais mis à jour)
+     */
+    public long getStockGeneration(int record) {
+        return buffer.getLong(recordPosition(record) + STOCK_GENERATION);
+    }
+    
+    /**
+     * Écrit le stock d'un item pendant un instantané du journal
+     * @param generation la génération du journal qui suivra l'instantané : les précédentes sont incluses
+     */
+    public void writeStock(int record, int stock, long generation) {
+        int position = recordPosition(record);
+        buffer.putInt(position + STOCK, stock);
+        buffer.putLong(position + STOCK_GENERATION, generation);
+    }
+    
+    /**
+     * Force l'écriture sur disque des stocks modifiés
+     */
+    public void force() {
+        buffer.force();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+    
+    private int recordPosition(int record) {
+        if (record < 0 || record >= itemCount) {
+            throw new IndexOutOfBoundsException("Erreur: Enregistrement invalide: " + record);
+        }
+        return recordsStart + record * RECORD_SIZE;
+    }
+    
+    private int compareName(int record, byte[] key) {
+        int position = recordPosition(record);
+        int offset = buffer.getInt(position + NAME_OFFSET);
+        int length = buffer.getInt(position + NAME_LENGTH);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = Byte.toUnsignedInt(buffer.get(offset + i)) - Byte.toUnsignedInt(key[i]);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+    
+    private static String readText(ByteBuffer buffer, int offset, int length) {
+        byte[] text = new byte[length];
+        buffer.get(offset, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+    
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+}
@@ -1,21 +1,33 @@
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 
 /**
  * Système principal de gestion McDonald's
  * Refactorisé pour séparer les responsabilités en différentes classes
  */
 public class McDonaldSystem {
+    private static final Path DATA_DIRECTORY = Path.of("data");
+    private static final Path CATALOG_FILE = DATA_DIRECTORY.resolve("catalog.mcdi");
+    private static final long CHECKPOINT_INTERVAL_SECONDS = 60;
+    
     private InventoryManager inventoryManager;
     private ShoppingCart shoppingCart;
     private MenuDisplay menuDisplay;
     private OrderService orderService;
+    private OrderEngine orderEngine;
     private InputHandler inputHandler;
+    private InventoryJournal inventoryJournal;
+    private MappedInventoryFile catalog;
     
     public McDonaldSystem() {
         this.inventoryManager = new InventoryManager();
         this.shoppingCart = new ShoppingCart();
         this.menuDisplay = new MenuDisplay();
         this.orderService = new OrderService(inventoryManager);
+        this.orderEngine = new OrderEngine(orderService);
         this.inputHandler = new InputHandler();
     }
     
@@ -26,7 +38,26 @@ public class McDonaldSystem {
     }
     
     private void initialize() {
-        inventoryManager.initializeDefaultInventory();
+        try {
+            inventoryJournal = InventoryJournal.open(DATA_DIRECTORY);
+            // Le catalogue mappé doit être ouvert avant la relecture : le journal rejoue son stock par-dessus
+            if (Files.exists(CATALOG_FILE)) {
+                openCatalog();
+            }
+            if (!inventoryJournal.recover(inventoryManager, orderService) && catalog == null) {
+                // Premier démarrage : le menu de base devient le catalogue
+                MappedInventoryFile.write(CATALOG_FILE, InventoryManager.createDefaultItems());
+                openCatalog();
+            }
+            inventoryJournal.attach(inventoryManager, orderService, CHECKPOINT_INTERVAL_SECONDS);
+        } catch (IOException e) {
+            System.out.println("ERREUR: Sauvegarde indisponible (" + e.getMessage() + "). Inventaire par défaut utilisé.");
+            closeQuietly(inventoryJournal);
+            inventoryJournal = null;
+            if (inventoryManager.getMenuSnapshot().isEmpty()) {
+                inventoryManager.initializeDefaultInventory();
+            }
+        }
         System.out.println("=== MCDONALDS ===");
     }
     
@@ -58,6 +89,30 @@ public class McDonaldSystem {
         }
         
         inputHandler.close();
+        orderEngine.close();
+        closeStorage();
+    }
+    
+    private void openCatalog() throws IOException {
+        catalog = MappedInventoryFile.open(CATALOG_FILE);
+        inventoryManager.openMappedFile(catalog);
+    }
+    
+    private void closeStorage() {
+        // Le journal d'abord : son dernier instantané force aussi le catalogue sur disque
+        closeQuietly(inventoryJournal);
+        closeQuietly(catalog);
+    }
+    
+    private void closeQuietly(AutoCloseable storage) {
+        if (storage == null) {
+            return;
+        }
+        try {
+            storage.close();
+        } catch (Exception e) {
+            System.out.println("ERREUR: Impossible de sauvegarder l'inventaire: " + e.getMessage());
+        }
     }
     
     private void handleClientMode() {
@@ -111,15 +166,15 @@ public class McDonaldSystem {
     }
     
     private void displayMenu() {
-        ArrayList<Item> allItems = inventoryManager.getAllItems();
-        menuDisplay.displayMenu(allItems);
+        menuDisplay.displayMenu(inventoryManager);
     }
     
     private void addTrioToCart() {
         try {
-            ArrayList<Item> mainDishes = inventoryManager.getItemsByType("main");
-            ArrayList<Item> snacks = inventoryManager.getItemsByType("snack");
-            ArrayList<Item> drinks = inventoryManager.getItemsByType("drink");
+            MenuSnapshot menu = inventoryManager.getMenuSnapshot();
+            List<Item> mainDishes = menu.getItemsByType("main");
+            List<Item> snacks = menu.getItemsByType("snack");
+            List<Item> drinks = menu.getItemsByType("drink");
             
             if (mainDishes.isEmpty() || snacks.isEmpty() || drinks.isEmpty()) {
                 System.out.println("ERREUR: Certaines catégories sont vides. Impossible de créer un trio.");
@@ -155,8 +210,8 @@ public class McDonaldSystem {
         }
     }
     
-    private boolean isValidTrioSelection(ArrayList<Item> mainDishes, ArrayList<Item> snacks, 
-                                        ArrayList<Item> drinks, int mainIndex, int snackIndex, int drinkIndex) {
+    private boolean isValidTrioSelection(List<Item> mainDishes, List<Item> snacks, 
+                                        List<Item> drinks, int mainIndex, int snackIndex, int drinkIndex) {
         return mainIndex >= 0 && mainIndex < mainDishes.size() &&
                snackIndex >= 0 && snackIndex < snacks.size() &&
                drinkIndex >= 0 && drinkIndex < drinks.size();
@@ -164,13 +219,12 @@ public class McDonaldSystem {
     
     private void addItemToCart() {
         try {
-            ArrayList<Item> allItems = inventoryManager.getAllItems();
-            if (allItems.isEmpty()) {
+            if (inventoryManager.getMenuSnapshot().isEmpty()) {
                 System.out.println("ERREUR: L'inventaire est vide.");
                 return;
             }
             
-            menuDisplay.displayMenu(allItems);
+            menuDisplay.displayMenu(inventoryManager);
             int itemChoice = inputHandler.readIntWithPrompt("Choix: ") - 1;
             Item selectedItem = inventoryManager.getItemByIndex(itemChoice);
             
@@ -225,14 +279,14 @@ public class McDonaldSystem {
             return;
         }
         
-        if (orderService.validateCartStock(shoppingCart)) {
-            orderService.processOrder(shoppingCart);
-            
-            int orderNumber = orderService.getNextOrderNumber();
-            menuDisplay.displayReceipt(orderNumber, shoppingCart);
+        OrderResult result = orderEngine.placeOrder(shoppingCart);
+        if (result.isAccepted()) {
+            menuDisplay.displayReceipt(result.getOrderNumber(), shoppingCart);
             
             shoppingCart.clear();
             System.out.println("\n✓ Commande passée avec succès!");
+        } else {
+            System.out.println("ERREUR: " + result.getRejectionReason());
         }
     }
     
@@ -266,13 +320,14 @@ public class McDonaldSystem {
             } catch (IllegalArgumentException e) {
                 System.out.println(e.getMessage());
                 System.out.println("Veuillez réessayer.");
+            } catch (UncheckedIOException e) {
+                System.out.println("ERREUR: Modification non enregistrée, sauvegarde de l'inventaire hors service.");
             }
         }
     }
     
     private void displayInventory() {
-        ArrayList<Item> allItems = inventoryManager.getAllItems();
-        menuDisplay.displayInventory(allItems);
+        menuDisplay.displayInventory(inventoryManager);
     }
     
     private void addStockToItem() {
@@ -338,14 +393,14 @@ public class McDonaldSystem {
             }
             
             String priceInput = inputHandler.readStringWithPrompt("Prix: ");
-            double itemPrice;
+            Money itemPrice;
             try {
-                itemPrice = Double.parseDouble(priceInput);
-                if (itemPrice < 0) {
+                itemPrice = Money.parse(priceInput);
+                if (itemPrice.isNegative()) {
                     System.out.println("ERREUR: Le prix ne peut pas être négatif.");
                     return;
                 }
-            } catch (NumberFormatException e) {
+            } catch (IllegalArgumentException e) { // nombre invalide ou hors limites
                 System.out.println("ERREUR: Le prix doit être un nombre valide.");
                 return;
             }
@@ -1,93 +1,198 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Gère l'affichage des menus et des informations
+ * Chaque écran est construit dans un tampon réutilisé puis écrit en un seul appel
  */
 public class MenuDisplay {
+    private static final String MAIN_MENU =
+            "\n1. Mode Client\n" +
+            "2. Mode Inventaire\n" +
+            "3. Quitter\n" +
+            "Choix: ";
+    
+    private static final String CLIENT_MENU =
+            "\n1. Voir menu\n" +
+            "2. Ajouter TRIO au panier\n" +
+            "3. Ajouter item au panier\n" +
+            "4. Voir panier\n" +
+            "5. Retirer du panier\n" +
+            "6. Passer commande\n" +
+            "7. Retour\n" +
+            "Choix: ";
+    
+    private static final String INVENTORY_MENU =
+            "\n=== INVENTAIRE ===\n" +
+            "1. Afficher inventaire\n" +
+            "2. Ajouter stock\n" +
+            "3. Retirer stock\n" +
+            "4. Ajouter nouvel item\n" +
+            "5. Retour\n" +
+            "Choix: ";
+    
+    private final Writer out;
+    private final StringBuilder buffer;
+    
+    // Textes précalculés, invalidés quand la version de l'inventaire (stock compris) change
+    private String cachedMenu;
+    private long cachedMenuVersion = -1;
+    private String cachedInventory;
+    private long cachedInventoryVersion = -1;
+    
+    public MenuDisplay() {
+        this(new OutputStreamWriter(System.out, System.out.charset()));
+    }
+    
+    /**
+     * Écrit les écrans dans un flux (fichier, imprimante de reçus, etc.) en UTF-8
+     */
+    public MenuDisplay(OutputStream out) {
+        this(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+    
+    public MenuDisplay(Writer out) {
+        this.out = out;
+        this.buffer = new StringBuilder(512);
+    }
     
     public void displayMainMenu() {
-        System.out.println("\n1. Mode Client");
-        System.out.println("2. Mode Inventaire");
-        System.out.println("3. Quitter");
-        System.out.print("Choix: ");
+        write(MAIN_MENU);
     }
     
     public void displayClientMenu() {
-        System.out.println("\n1. Voir menu");
-        System.out.println("2. Ajouter TRIO au panier");
-        System.out.println("3. Ajouter item au panier");
-        System.out.println("4. Voir panier");
-        System.out.println("5. Retirer du panier");
-        System.out.println("6. Passer commande");
-        System.out.println("7. Retour");
-        System.out.print("Choix: ");
+        write(CLIENT_MENU);
     }
     
     public void displayInventoryMenu() {
-        System.out.println("\n=== INVENTAIRE ===");
-        System.out.println("1. Afficher inventaire");
-        System.out.println("2. Ajouter stock");
-        System.out.println("3. Retirer stock");
-        System.out.println("4. Ajouter nouvel item");
-        System.out.println("5. Retour");
-        System.out.print("Choix: ");
+        write(INVENTORY_MENU);
     }
     
     public void displayMenu(ArrayList<Item> inventory) {
-        System.out.println("\n=== MENU ===");
-        for (int i = 0; i < inventory.size(); i++) {
-            Item item = inventory.get(i);
-            System.out.println((i + 1) + ". " + item.getName() + " - " + 
-                             item.getPrice() + "$ (stock: " + item.getStock() + ")");
-        }
+        write(renderMenu(inventory));
     }
     
-    public void displayMenuWithIndex(ArrayList<Item> items) {
-        for (int i = 0; i < items.size(); i++) {
-            Item item = items.get(i);
-            System.out.println((i + 1) + ". " + item.getName() + " - " + item.getPrice() + "$");
+    /**
+     * Affiche le menu complet en réutilisant le texte précédent si l'inventaire n'a pas changé
+     */
+    public void displayMenu(InventoryManager inventoryManager) {
+        long version = inventoryManager.getVersion(); // lue avant le rendu : un changement pendant le rendu l'invalide
+        if (cachedMenu == null || cachedMenuVersion != version) {
+            cachedMenu = renderMenu(inventoryManager.getMenuSnapshot().getAllItems());
+            cachedMenuVersion = version;
         }
+        write(cachedMenu);
+    }
+    
+    public void displayMenuWithIndex(List<Item> items) {
+        buffer.setLength(0);
+        appendMenuWithIndex(items);
+        flushBuffer();
     }
     
     public void displayCart(ShoppingCart cart) {
+        buffer.setLength(0);
         if (cart.isEmpty()) {
-            System.out.println("\nPanier vide!");
+            buffer.append("\nPanier vide!\n");
         } else {
-            System.out.println("\n=== VOTRE PANIER ===");
-            ArrayList<CartItem> items = cart.getAllItems();
+            buffer.append("\n=== VOTRE PANIER ===\n");
+            List<CartItem> items = cart.getItems();
             for (int i = 0; i < items.size(); i++) {
-                CartItem cartItem = items.get(i);
-                System.out.printf("%d. %s - %.2f$\n", 
-                                (i + 1), cartItem.getDescription(), cartItem.getPrice());
+                buffer.append(i + 1).append(". ").append(items.get(i).getDescription())
+                      .append(" - ").append(cart.getLinePrice(i)).append("$\n");
             }
-            System.out.println("--------------------");
-            System.out.printf("TOTAL: %.2f$\n", cart.calculateTotal());
+            buffer.append("--------------------\n");
+            buffer.append("TOTAL: ").append(cart.calculateTotal()).append("$\n");
         }
+        flushBuffer();
     }
     
     public void displayInventory(ArrayList<Item> inventory) {
-        System.out.println("\n--- STOCK ACTUEL ---");
-        for (Item item : inventory) {
-            System.out.println(item.getName() + ": " + item.getStock() + 
-                             " unités (" + item.getPrice() + "$)");
+        write(renderInventory(inventory));
+    }
+    
+    /**
+     * Affiche le stock en réutilisant le texte précédent si l'inventaire n'a pas changé
+     */
+    public void displayInventory(InventoryManager inventoryManager) {
+        long version = inventoryManager.getVersion();
+        if (cachedInventory == null || cachedInventoryVersion != version) {
+            cachedInventory = renderInventory(inventoryManager.getMenuSnapshot().getAllItems());
+            cachedInventoryVersion = version;
         }
+        write(cachedInventory);
     }
     
     public void displayReceipt(int orderNumber, ShoppingCart cart) {
-        System.out.println("\n========= RECU =========");
-        System.out.println("Commande #" + orderNumber);
-        ArrayList<CartItem> items = cart.getAllItems();
-        for (CartItem cartItem : items) {
-            System.out.printf("%s - %.2f$\n", cartItem.getDescription(), cartItem.getPrice());
+        buffer.setLength(0);
+        buffer.append("\n========= RECU =========\n");
+        buffer.append("Commande #").append(orderNumber).append('\n');
+        List<CartItem> items = cart.getItems();
+        for (int i = 0; i < items.size(); i++) {
+            buffer.append(items.get(i).getDescription()).append(" - ").append(cart.getLinePrice(i)).append("$\n");
         }
-        System.out.println("------------------------");
-        System.out.printf("TOTAL: %.2f$\n", cart.calculateTotal());
-        System.out.println("========================");
+        buffer.append("------------------------\n");
+        buffer.append("TOTAL: ").append(cart.calculateTotal()).append("$\n");
+        buffer.append("========================\n");
+        flushBuffer();
     }
     
-    public void displayItemsByCategory(String categoryName, ArrayList<Item> items) {
-        System.out.println("\n" + categoryName + ":");
-        displayMenuWithIndex(items);
+    public void displayItemsByCategory(String categoryName, List<Item> items) {
+        buffer.setLength(0);
+        buffer.append('\n').append(categoryName).append(":\n");
+        appendMenuWithIndex(items);
+        flushBuffer();
+    }
+    
+    private String renderMenu(List<Item> inventory) {
+        buffer.setLength(0);
+        buffer.append("\n=== MENU ===\n");
+        for (int i = 0; i < inventory.size(); i++) {
+            Item item = inventory.get(i);
+            buffer.append(i + 1).append(". ").append(item.getName()).append(" - ")
+                  .append(item.getPrice()).append("$ (stock: ").append(item.getStock()).append(")\n");
+        }
+        return buffer.toString();
+    }
+    
+    private String renderInventory(List<Item> inventory) {
+        buffer.setLength(0);
+        buffer.append("\n--- STOCK ACTUEL ---\n");
+        for (Item item : inventory) {
+            buffer.append(item.getName()).append(": ").append(item.getStock())
+                  .append(" unités (").append(item.getPrice()).append("$)\n");
+        }
+        return buffer.toString();
+    }
+    
+    private void appendMenuWithIndex(List<Item> items) {
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            buffer.append(i + 1).append(". ").append(item.getName()).append(" - ").append(item.getPrice()).append("$\n");
+        }
+    }
+    
+    private void flushBuffer() {
+        try {
+            out.append(buffer);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erreur: Impossible d'écrire à l'écran.", e);
+        }
+    }
+    
+    private void write(String text) {
+        try {
+            out.write(text);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erreur: Impossible d'écrire à l'écran.", e);
+        }
     }
 }
-
@@ -0,0 +1,48 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Vue immuable du menu à une version donnée du catalogue
+ * Partagée sans copie entre tous les lecteurs; une nouvelle vue est construite quand la liste des items change
+ */
+public final class MenuSnapshot {
+    private final long version;
+    private final List<Item> allItems;
+    private final Map<String, List<Item>> itemsByType;
+    
+    /**
+     * @param items les items dans l'ordre du menu; la liste appartient ensuite à la vue, qui ne la copie pas
+     */
+    MenuSnapshot(long version, ArrayList<Item> items) {
+        Map<String, List<Item>> byType = new HashMap<>();
+        for (Item item : items) {
+            byType.computeIfAbsent(item.getType(), type -> new ArrayList<>()).add(item);
+        }
+        for (Map.Entry<String, List<Item>> entry : byType.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        
+        this.version = version;
+        this.allItems = Collections.unmodifiableList(items);
+        this.itemsByType = Collections.unmodifiableMap(byType);
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    public List<Item> getAllItems() {
+        return allItems;
+    }
+    
+    public List<Item> getItemsByType(String type) {
+        return itemsByType.getOrDefault(type, Collections.emptyList());
+    }
+    
+    public boolean isEmpty() {
+        return allItems.isEmpty();
+    }
+}
@@ -0,0 +1,103 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Montant d'argent exact, stocké en cents dans un long
+ * Les additions et rabais se font en arithmétique entière, sans erreur d'arrondi
+ * Les totaux calculés en boucle utilisent directement les cents (discountCents, CartItem.getPriceCents)
+ * pour ne créer un Money qu'une fois le résultat connu
+ */
+public final class Money implements Comparable<Money> {
+    public static final Money ZERO = new Money(0);
+    
+    private final long cents;
+    
+    private Money(long cents) {
+        this.cents = cents;
+    }
+    
+    public static Money ofCents(long cents) {
+        return cents == 0 ? ZERO : new Money(cents);
+    }
+    
+    /**
+     * Convertit un montant en dollars (ex: 6.99) en arrondissant au cent le plus proche
+     */
+    public static Money ofDollars(double dollars) {
+        return ofCents(Math.round(dollars * 100.0));
+    }
+    
+    /**
+     * Lit un montant saisi par l'utilisateur (ex: "6.99"), arrondi au cent le plus proche
+     * @throws NumberFormatException si le texte n'est pas un nombre valide
+     * @throws IllegalArgumentException si le montant ne tient pas dans un long de cents
+     */
+    public static Money parse(String amount) {
+        BigDecimal value = new BigDecimal(amount.trim()).setScale(2, RoundingMode.HALF_UP);
+        try {
+            return ofCents(value.movePointRight(2).longValueExact());
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Erreur: Montant hors limites: " + amount.trim(), e);
+        }
+    }
+    
+    public long getCents() {
+        return cents;
+    }
+    
+    public Money plus(Money other) {
+        return ofCents(cents + other.cents);
+    }
+    
+    public Money times(int quantity) {
+        return ofCents(cents * quantity);
+    }
+    
+    /**
+     * Applique un rabais en pourcentage, arrondi au cent le plus proche
+     * @param percent le rabais (ex: 15 pour 15%)
+     */
+    public Money discount(int percent) {
+        return ofCents(discountCents(cents, percent));
+    }
+    
+    /**
+     * Même calcul que discount, sur des cents, sans créer d'objet
+     */
+    public static long discountCents(long cents, int percent) {
+        return Math.floorDiv(cents * (100 - percent) + 50, 100);
+    }
+    
+    public boolean isNegative() {
+        return cents < 0;
+    }
+    
+    public boolean isPositive() {
+        return cents > 0;
+    }
+    
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(cents, other.cents);
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Money && ((Money) other).cents == cents;
+    }
+    
+    @Override
+    public int hashCode() {
+        return Long.hashCode(cents);
+    }
+    
+    /**
+     * Format d'affichage avec deux décimales (ex: "6.99")
+     */
+    @Override
+    public String toString() {
+        long absolute = Math.abs(cents);
+        long remainder = absolute % 100;
+        return (cents < 0 ? "-" : "") + (absolute / 100) + (remainder < 10 ? ".0" : ".") + remainder;
+    }
+}
@@ -0,0 +1,93 @@
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Traite les commandes sans dépendre de la console
+ * Utilisé par l'interface console, mais aussi par des bornes, des tests ou un générateur de charge
+ * Plusieurs commandes peuvent être traitées en parallèle sur le même inventaire
+ */
+public class OrderEngine implements AutoCloseable {
+    private final OrderService orderService;
+    private final ExecutorService executor;
+    
+    public OrderEngine(OrderService orderService) {
+        this(orderService, Executors.newVirtualThreadPerTaskExecutor());
+    }
+    
+    public OrderEngine(OrderService orderService, ExecutorService executor) {
+        this.orderService = orderService;
+        this.executor = executor;
+    }
+    
+    /**
+     * Passe une commande sur le thread appelant
+     * @param cart le panier du client (il n'est pas modifié)
+     * @return le reçu de la commande ou la raison du refus
+     */
+    public OrderResult placeOrder(ShoppingCart cart) {
+        if (cart == null || cart.isEmpty()) {
+            return OrderResult.rejected("Panier vide");
+        }
+        
+        ShoppingCart snapshot = new ShoppingCart();
+        for (CartItem cartItem : cart.getItems()) {
+            snapshot.addItem(cartItem);
+        }
+        
+        // Le numéro est pris avant de toucher au stock : si son bloc ne peut pas être noté au journal,
+        // rien n'a encore été retiré; un numéro pris pour une commande refusée est simplement sauté
+        int orderNumber;
+        boolean processed;
+        try {
+            orderNumber = orderService.getNextOrderNumber();
+            processed = orderService.processOrder(snapshot);
+        } catch (UncheckedIOException e) {
+            // Le journal est hors service : la commande n'est pas durable et il refusera les suivantes
+            return OrderResult.rejected("Commande non enregistrée, sauvegarde de l'inventaire hors service");
+        }
+        if (!processed) {
+            List<String> shortages = orderService.findStockShortages(snapshot);
+            return OrderResult.rejected(shortages.isEmpty()
+                    ? "Stock insuffisant"
+                    : String.join("; ", shortages));
+        }
+        
+        return OrderResult.accepted(orderNumber, snapshot.getItems(), snapshot.calculateTotal());
+    }
+    
+    /**
+     * Passe une commande de manière asynchrone
+     * @param cart le panier du client, qui ne doit plus être modifié par l'appelant
+     * @return le résultat de la commande une fois traitée
+     */
+    public CompletableFuture<OrderResult> submitOrder(ShoppingCart cart) {
+        return CompletableFuture.supplyAsync(() -> placeOrder(cart), executor);
+    }
+    
+    /**
+     * Passe plusieurs commandes en parallèle
+     * @param carts les paniers des clients
+     * @return les résultats, dans le même ordre que les paniers
+     */
+    public List<OrderResult> placeOrders(List<ShoppingCart> carts) {
+        List<CompletableFuture<OrderResult>> pending = new ArrayList<>();
+        for (ShoppingCart cart : carts) {
+            pending.add(submitOrder(cart));
+        }
+        
+        List<OrderResult> results = new ArrayList<>();
+        for (CompletableFuture<OrderResult> future : pending) {
+            results.add(future.join());
+        }
+        return results;
+    }
+    
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Attribue les numéros de commande sans verrou
+ * Les numéros sont réservés par blocs : chaque bloc est distribué par une seule file (stripe) ou une
+ * seule caisse, donc les threads ne se disputent presque jamais le même compteur
+ * Chaque nouvelle réservation est signalée avant d'être utilisée pour pouvoir être persistée
+ *
+ * Les numéros sont uniques et croissants par stripe, mais pas consécutifs : au redémarrage, la fin des blocs
+ * entamés et les blocs de réserve sont abandonnés, deux stripes servent des plages différentes en parallèle,
+ * et un numéro pris avant qu'une commande soit refusée n'est pas rendu
+ * C'est le prix d'une numérotation sans contention; une numérotation sans trou demanderait un compteur unique
+ */
+public class OrderNumberSequencer {
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+    
+    private final int blockSize;
+    private final AtomicInteger nextBlockStart;        // premier numéro jamais réservé
+    private final AtomicLongArray stripes;             // [prochain numéro:32][fin du bloc:32] par stripe
+    private final ConcurrentLinkedQueue<Long> spareBlocks = new ConcurrentLinkedQueue<>();
+    private volatile IntConsumer blockListener = reservedUpTo -> { };
+    
+    public OrderNumberSequencer(int firstNumber) {
+        this(firstNumber, DEFAULT_BLOCK_SIZE);
+    }
+    
+    public OrderNumberSequencer(int firstNumber, int blockSize) {
+        this.blockSize = blockSize;
+        this.nextBlockStart = new AtomicInteger(firstNumber);
+        int stripeCount = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+        this.stripes = new AtomicLongArray(stripeCount);
+    }
+    
+    /**
+     * Appelé à chaque réservation de bloc avec le dernier numéro réservé, avant que le bloc serve
+     * Si l'écouteur lève une exception, elle est propagée par next et le bloc est abandonné sans servir
+     */
+    public void setBlockListener(IntConsumer blockListener) {
+        this.blockListener = blockListener;
+    }
+    
+    /**
+     * Prochain numéro, pris dans le bloc de la stripe du thread courant
+     */
+    public int next() {
+        int index = (int) (Thread.currentThread().threadId() & (stripes.length() - 1));
+        while (true) {
+            long packed = stripes.get(index);
+            int next = (int) (packed >>> 32);
+            int end = (int) packed;
+            if (next < end) {
+                if (stripes.compareAndSet(index, packed, pack(next + 1, end))) {
+                    return next;
+                }
+                continue;
+            }
+            
+            long block = takeBlock();
+            int start = (int) (block >>> 32);
+            int blockEnd = (int) block;
+            if (stripes.compareAndSet(index, packed, pack(start + 1, blockEnd))) {
+                return start;
+            }
+            // Un autre thread a rechargé la stripe entre-temps : le bloc est gardé pour plus tard
+            spareBlocks.add(block);
+        }
+    }
+    
+    /**
+     * Crée une caisse qui distribue ses propres blocs sans aucune synchronisation
+     * Une caisse ne doit être utilisée que par un seul thread à la fois
+     */
+    public Register newRegister() {
+        return new Register();
+    }
+    
+    /**
+     * Premier numéro qui n'a encore été réservé par aucun bloc
+     */
+    public int getHighWaterMark() {
+        return nextBlockStart.get();
+    }
+    
+    /**
+     * Reprend la numérotation après un redémarrage; les blocs en cours sont abandonnés
+     */
+    public void restore(int nextNumber) {
+        nextBlockStart.set(nextNumber);
+        spareBlocks.clear();
+        for (int i = 0; i < stripes.length(); i++) {
+            stripes.set(i, 0);
+        }
+    }
+    
+    private long takeBlock() {
+        Long spare = spareBlocks.poll();
+        if (spare != null) {
+            return spare;
+        }
+        int start = nextBlockStart.getAndAdd(blockSize);
+        int end = start + blockSize;
+        blockListener.accept(end - 1);
+        return pack(start, end);
+    }
+    
+    private static long pack(int next, int end) {
+        return ((long) next << 32) | (end & 0xFFFFFFFFL);
+    }
+    
+    /**
+     * Distributeur de numéros propre à une caisse
+     */
+    public class Register {
+        private int next;
+        private int end;
+        
+        public int next() {
+            if (next >= end) {
+                long block = takeBlock();
+                next = (int) (block >>> 32);
+                end = (int) block;
+            }
+            return next++;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Résultat d'une commande passée via l'OrderEngine : un reçu si elle est acceptée,
+ * une raison de refus sinon
+ */
+public class OrderResult {
+    private final boolean accepted;
+    private final int orderNumber;
+    private final List<CartItem> items;
+    private final Money total;
+    private final String rejectionReason;
+    
+    private OrderResult(boolean accepted, int orderNumber, List<CartItem> items, Money total, String rejectionReason) {
+        this.accepted = accepted;
+        this.orderNumber = orderNumber;
+        this.items = items;
+        this.total = total;
+        this.rejectionReason = rejectionReason;
+    }
+    
+    public static OrderResult accepted(int orderNumber, List<CartItem> items, Money total) {
+        return new OrderResult(true, orderNumber, Collections.unmodifiableList(new ArrayList<>(items)), total, null);
+    }
+    
+    public static OrderResult rejected(String reason) {
+        return new OrderResult(false, 0, Collections.emptyList(), Money.ZERO, reason);
+    }
+    
+    public boolean isAccepted() {
+        return accepted;
+    }
+    
+    public int getOrderNumber() {
+        return orderNumber;
+    }
+    
+    public List<CartItem> getItems() {
+        return items;
+    }
+    
+    public Money getTotal() {
+        return total;
+    }
+    
+    public String getRejectionReason() {
+        return rejectionReason;
+    }
+}
@@ -1,57 +1,147 @@
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Gère les opérations liées aux commandes
  */
 public class OrderService {
+    // Ordre fixe de réservation : deux commandes concurrentes se disputent les items dans le même ordre
+    private static final Comparator<Item> RESERVATION_ORDER =
+            Comparator.comparing(Item::getName).thenComparingInt(System::identityHashCode);
+    
     private InventoryManager inventoryManager;
-    private int orderNumber;
+    private OrderNumberSequencer orderNumbers;
     
     public OrderService(InventoryManager inventoryManager) {
         this.inventoryManager = inventoryManager;
-        this.orderNumber = 1;
+        this.orderNumbers = new OrderNumberSequencer(1);
+        this.orderNumbers.setBlockListener(this::persistReservedOrderNumbers);
     }
     
     public boolean validateCartStock(ShoppingCart cart) {
-        ArrayList<CartItem> items = cart.getAllItems();
-        boolean allItemsInStock = true;
-        
-        for (CartItem cartItem : items) {
-            if (cartItem.isTrio()) {
-                if (!inventoryManager.hasStockForTrio(
-                        cartItem.getItem(), 
-                        cartItem.getTrioSnack(), 
-                        cartItem.getTrioDrink())) {
-                    allItemsInStock = false;
-                    System.out.println("ERREUR: Stock insuffisant pour " + cartItem.getDescription());
-                }
-            } else {
-                if (!inventoryManager.hasStock(cartItem.getItem())) {
-                    allItemsInStock = false;
-                    System.out.println("ERREUR: Stock insuffisant pour " + cartItem.getItem().getName());
-                }
+        List<String> shortages = findStockShortages(cart);
+        for (String shortage : shortages) {
+            System.out.println("ERREUR: " + shortage);
+        }
+        return shortages.isEmpty();
+    }
+    
+    /**
+     * Liste les items du panier dont le stock ne couvre pas la quantité demandée
+     * @param cart le panier à vérifier
+     * @return un message par item en rupture, vide si tout est disponible
+     */
+    public List<String> findStockShortages(ShoppingCart cart) {
+        List<String> shortages = new ArrayList<>();
+        for (Map.Entry<Item, Integer> entry : computeDemand(cart).entrySet()) {
+            Item item = entry.getKey();
+            int available = item.getStock();
+            if (available < entry.getValue()) {
+                shortages.add("Stock insuffisant pour " + item.getName() +
+                              " (demandé: " + entry.getValue() + ", disponible: " + available + ")");
             }
         }
+        return shortages;
+    }
+    
+    /**
+     * Retire du stock tous les items du panier en une seule opération atomique
+     * Soit toute la demande est réservée puis confirmée, soit rien n'est modifié
+     * @param cart le panier à commander
+     * @return true si la commande a été appliquée, false si le stock était insuffisant
+     * @throws java.io.UncheckedIOException si le journal d'inventaire n'a pas pu rendre la commande durable
+     */
+    public boolean processOrder(ShoppingCart cart) {
+        List<Map.Entry<Item, Integer>> demand = new ArrayList<>(computeDemand(cart).entrySet());
+        demand.sort(Map.Entry.comparingByKey(RESERVATION_ORDER));
         
-        return allItemsInStock;
+        return inventoryManager.applyChange(() -> reserveAndCommit(demand),
+                journal -> journal.logStockChanges(toStockDeltas(demand)));
+    }
+    
+    /**
+     * Prochain numéro de commande, à prendre avant processOrder : un nouveau bloc est noté au journal
+     * @throws java.io.UncheckedIOException si le journal d'inventaire n'a pas pu noter un nouveau bloc
+     */
+    public int getNextOrderNumber() {
+        return orderNumbers.next();
+    }
+    
+    public OrderNumberSequencer getOrderNumberSequencer() {
+        return orderNumbers;
+    }
+    
+    /**
+     * Premier numéro qui n'a encore été réservé par aucun bloc
+     */
+    public int peekNextOrderNumber() {
+        return orderNumbers.getHighWaterMark();
+    }
+    
+    /**
+     * Reprend la numérotation à partir d'un numéro donné (ex: après rechargement du journal)
+     */
+    public void setNextOrderNumber(int nextOrderNumber) {
+        orderNumbers.restore(nextOrderNumber);
     }
     
-    public void processOrder(ShoppingCart cart) {
-        ArrayList<CartItem> items = cart.getAllItems();
+    private void persistReservedOrderNumbers(int reservedUpTo) {
+        InventoryJournal journal = inventoryManager.getJournal();
+        if (journal != null) {
+            journal.record(() -> true, currentJournal -> currentJournal.logOrderNumber(reservedUpTo));
+        }
+    }
+    
+    private boolean reserveAndCommit(List<Map.Entry<Item, Integer>> demand) {
+        int reservedCount = 0;
+        while (reservedCount < demand.size()) {
+            Map.Entry<Item, Integer> entry = demand.get(reservedCount);
+            if (!entry.getKey().tryReserve(entry.getValue())) {
+                break;
+            }
+            reservedCount++;
+        }
         
-        for (CartItem cartItem : items) {
-            if (cartItem.isTrio()) {
-                cartItem.getItem().removeStock(1);
-                cartItem.getTrioSnack().removeStock(1);
-                cartItem.getTrioDrink().removeStock(1);
-            } else {
-                cartItem.getItem().removeStock(1);
+        if (reservedCount < demand.size()) {
+            for (int i = 0; i < reservedCount; i++) {
+                demand.get(i).getKey().release(demand.get(i).getValue());
             }
+            return false;
+        }
+        
+        for (Map.Entry<Item, Integer> entry : demand) {
+            entry.getKey().commit(entry.getValue());
         }
+        return true;
     }
     
-    public int getNextOrderNumber() {
-        return orderNumber++;
+    /**
+     * Variations à écrire au journal, une par item
+     */
+    private Map<String, Integer> toStockDeltas(List<Map.Entry<Item, Integer>> demand) {
+        Map<String, Integer> deltas = new HashMap<>();
+        for (Map.Entry<Item, Integer> entry : demand) {
+            deltas.merge(entry.getKey().getName(), -entry.getValue(), Integer::sum);
+        }
+        return deltas;
+    }
+    
+    /**
+     * Additionne la quantité demandée pour chaque item du panier, trios inclus
+     */
+    private Map<Item, Integer> computeDemand(ShoppingCart cart) {
+        Map<Item, Integer> demand = new IdentityHashMap<>();
+        for (CartItem cartItem : cart.getItems()) {
+            demand.merge(cartItem.getItem(), 1, Integer::sum);
+            if (cartItem.isTrio()) {
+                demand.merge(cartItem.getTrioSnack(), 1, Integer::sum);
+                demand.merge(cartItem.getTrioDrink(), 1, Integer::sum);
+            }
+        }
+        return demand;
     }
 }
-
@@ -1,21 +1,38 @@
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Gère le panier d'achat du client
+ * Le total et le prix de chaque ligne sont maintenus à chaque modification du panier
  */
 public class ShoppingCart {
     private ArrayList<CartItem> items;
+    private long[] linePriceCents;  // prix de chaque ligne en cents, même index que items
+    private long totalCents;
     
     public ShoppingCart() {
         this.items = new ArrayList<>();
+        this.linePriceCents = new long[8];
+        this.totalCents = 0;
     }
     
     public void addItem(CartItem cartItem) {
+        long price = cartItem.getPriceCents();
+        int index = items.size();
+        if (index == linePriceCents.length) {
+            linePriceCents = Arrays.copyOf(linePriceCents, index * 2);
+        }
         items.add(cartItem);
+        linePriceCents[index] = price;
+        totalCents += price;
     }
     
     public CartItem removeItem(int index) {
         if (index >= 0 && index < items.size()) {
+            totalCents -= linePriceCents[index];
+            System.arraycopy(linePriceCents, index + 1, linePriceCents, index, items.size() - index - 1);
             return items.remove(index);
         }
         return null;
@@ -23,6 +40,7 @@ public class ShoppingCart {
     
     public void clear() {
         items.clear();
+        totalCents = 0;
     }
     
     public boolean isEmpty() {
@@ -40,16 +58,38 @@ public class ShoppingCart {
         return null;
     }
     
+    /**
+     * Prix mis en cache d'une ligne du panier
+     * @param index la position de la ligne
+     * @return le prix de la ligne, ou null si l'index est invalide
+     */
+    public Money getLinePrice(int index) {
+        if (index >= 0 && index < items.size()) {
+            return Money.ofCents(linePriceCents[index]);
+        }
+        return null;
+    }
+    
+    /**
+     * Vue en lecture seule des items du panier, sans copie
+     * La vue reflète les modifications ultérieures du panier
+     */
+    public List<CartItem> getItems() {
+        return Collections.unmodifiableList(items);
+    }
+    
     public ArrayList<CartItem> getAllItems() {
         return new ArrayList<>(items);
     }
     
-    public double calculateTotal() {
-        double total = 0.0;
-        for (CartItem cartItem : items) {
-            total += cartItem.getPrice();
-        }
-        return total;
+    public Money calculateTotal() {
+        return Money.ofCents(totalCents);
+    }
+    
+    /**
+     * Total du panier en cents, sans créer de Money (ex: pour additionner beaucoup de paniers)
+     */
+    public long getTotalCents() {
+        return totalCents;
     }
 }
-
@@ -1,5 +1,31 @@
 package refactoring.clean_code.objets;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
 // ===================
 // ABSTRACT PRODUCTS
 // ===================
@@ -20,83 +46,231 @@ interface SlackNotification {
     void send(String channel, String message);
 }
 
+// ===================
+// MESSAGE TEMPLATES
+// ===================
+
+/**
+ * A notification layout parsed once, then rendered by appending straight into a caller's buffer.
+ * {@code {name}} placeholders are resolved from the constants at compile time; {@code {0}}..{@code {2}}
+ * are the per-message arguments, and {@code {1:160}} cuts that argument to 160 characters ("..." included).
+ */
+final class MessageTemplate {
+    private static final int NO_LIMIT = Integer.MAX_VALUE;
+    private static final String ELLIPSIS = "...";
+    private static final int MAX_RETAINED_BUFFER = 8 * 1024;
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+    
+    // Segment i is literals[i] when arguments[i] is -1, otherwise argument arguments[i] cut to limits[i]
+    private final String[] literals;
+    private final int[] arguments;
+    private final int[] limits;
+    
+    private MessageTemplate(String[] literals, int[] arguments, int[] limits) {
+        this.literals = literals;
+        this.arguments = arguments;
+        this.limits = limits;
+    }
+    
+    public static MessageTemplate compile(String pattern, Map<String, String> constants) {
+        List<String> literals = new ArrayList<>();
+        List<int[]> placeholders = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int position = 0;
+        while (position < pattern.length()) {
+            int open = pattern.indexOf('{', position);
+            if (open < 0) {
+                literal.append(pattern, position, pattern.length());
+                break;
+            }
+            int close = pattern.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder in template: " + pattern);
+            }
+            literal.append(pattern, position, open);
+            String name = pattern.substring(open + 1, close);
+            position = close + 1;
+            
+            if (!name.isEmpty() && Character.isDigit(name.charAt(0))) {
+                int colon = name.indexOf(':');
+                int argument = Integer.parseInt(colon < 0 ? name : name.substring(0, colon));
+                int limit = colon < 0 ? NO_LIMIT : Integer.parseInt(name.substring(colon + 1));
+                if (argument > 2 || limit <= ELLIPSIS.length()) {
+                    throw new IllegalArgumentException("Invalid placeholder {" + name + "} in template: " + pattern);
+                }
+                literals.add(literal.toString());
+                placeholders.add(new int[] {argument, limit});
+                literal.setLength(0);
+            } else if (constants.containsKey(name)) {
+                literal.append(constants.get(name));
+            } else {
+                throw new IllegalArgumentException("Unknown placeholder {" + name + "} in template: " + pattern);
+            }
+        }
+        literals.add(literal.toString());
+        
+        // Interleave literals and placeholders, leaving out empty literals
+        int segments = literals.size() + placeholders.size();
+        List<String> segmentLiterals = new ArrayList<>(segments);
+        List<int[]> segmentArguments = new ArrayList<>(segments);
+        for (int i = 0; i < literals.size(); i++) {
+            if (!literals.get(i).isEmpty()) {
+                segmentLiterals.add(literals.get(i));
+                segmentArguments.add(null);
+            }
+            if (i < placeholders.size()) {
+                segmentLiterals.add(null);
+                segmentArguments.add(placeholders.get(i));
+            }
+        }
+        
+        int count = segmentLiterals.size();
+        String[] literalArray = new String[count];
+        int[] argumentArray = new int[count];
+        int[] limitArray = new int[count];
+        for (int i = 0; i < count; i++) {
+            int[] placeholder = segmentArguments.get(i);
+            literalArray[i] = segmentLiterals.get(i);
+            argumentArray[i] = placeholder == null ? -1 : placeholder[0];
+            limitArray[i] = placeholder == null ? NO_LIMIT : placeholder[1];
+        }
+        return new MessageTemplate(literalArray, argumentArray, limitArray);
+    }
+    
+    /**
+     * Constants shared by every sender: the priority label, its subject prefix and the channel config
+     */
+    public static Map<String, String> senderConstants(String priorityLabel, String config) {
+        Map<String, String> constants = new HashMap<>();
+        constants.put("label", priorityLabel);
+        constants.put("prefix", priorityLabel.equals("NORMAL") ? "" : "[" + priorityLabel + "] ");
+        constants.put("config", config);
+        return constants;
+    }
+    
+    /**
+     * The calling thread's render buffer, emptied; workers and callers each reuse their own
+     */
+    public static StringBuilder buffer() {
+        StringBuilder buffer = BUFFER.get();
+        if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+            buffer = new StringBuilder(256);
+            BUFFER.set(buffer);
+        }
+        buffer.setLength(0);
+        return buffer;
+    }
+    
+    public void appendTo(StringBuilder out, CharSequence first, CharSequence second) {
+        appendTo(out, first, second, null);
+    }
+    
+    public void appendTo(StringBuilder out, CharSequence first, CharSequence second, CharSequence third) {
+        for (int i = 0; i < literals.length; i++) {
+            switch (arguments[i]) {
+                case -1: out.append(literals[i]); break;
+                case 0: appendArgument(out, first, limits[i]); break;
+                case 1: appendArgument(out, second, limits[i]); break;
+                default: appendArgument(out, third, limits[i]); break;
+            }
+        }
+    }
+    
+    private static void appendArgument(StringBuilder out, CharSequence value, int limit) {
+        if (value == null || value.length() <= limit) {
+            out.append(value);
+            return;
+        }
+        out.append(value, 0, limit - ELLIPSIS.length()).append(ELLIPSIS);
+    }
+}
+
 // =========================
 // GENERIC CONCRETE PRODUCT
 // =========================
 
 class GenericEmail implements EmailNotification {
-    private final String priorityLabel;
-    private final String config;
+    private final MessageTemplate template;
     
     public GenericEmail(String priorityLabel, String config) {
-        this.priorityLabel = priorityLabel;
-        this.config = config;
+        this.template = MessageTemplate.compile(
+            "=== {label} EMAIL ===\nTo: {0}\nSubject: {prefix}{1}\nMessage: {2}\n{config}\n\n",
+            MessageTemplate.senderConstants(priorityLabel, config));
     }
     
     public void send(String recipient, String subject, String message) {
-        System.out.println("=== " + priorityLabel + " EMAIL ===");
-        System.out.println("To: " + recipient);
-        System.out.println("Subject: " + (priorityLabel.equals("NORMAL") ? "" : "[" + priorityLabel + "] ") + subject);
-        System.out.println("Message: " + message);
-        System.out.println(config + "\n");
+        StringBuilder out = MessageTemplate.buffer();
+        render(out, recipient, subject, message);
+        System.out.print(out);
+    }
+    
+    void render(StringBuilder out, String recipient, String subject, String message) {
+        template.appendTo(out, recipient, subject, message);
     }
 }
 
 class GenericSMS implements SMSNotification {
-    private final String priorityLabel;
-    private final String config;
+    private static final int MAX_LENGTH = 160;
+    
+    private final MessageTemplate template;
     
     public GenericSMS(String priorityLabel, String config) {
-        this.priorityLabel = priorityLabel;
-        this.config = config;
+        Map<String, String> constants = MessageTemplate.senderConstants(priorityLabel, config);
+        // The prefix counts towards the 160 characters, so the message gets what is left
+        int messageLimit = MAX_LENGTH - constants.get("prefix").length();
+        this.template = MessageTemplate.compile(
+            "=== {label} SMS ===\nTo: {0}\nMessage: {prefix}{1:" + messageLimit + "}\n{config}\n\n", constants);
     }
     
     public void send(String phoneNumber, String message) {
-        String prefix = priorityLabel.equals("NORMAL") ? "" : "[" + priorityLabel + "] ";
-        String truncated = (prefix + message).length() > 160 ? 
-            (prefix + message).substring(0, 157) + "..." : prefix + message;
-        
-        System.out.println("=== " + priorityLabel + " SMS ===");
-        System.out.println("To: " + phoneNumber);
-        System.out.println("Message: " + truncated);
-        System.out.println(config + "\n");
+        StringBuilder out = MessageTemplate.buffer();
+        render(out, phoneNumber, message);
+        System.out.print(out);
+    }
+    
+    void render(StringBuilder out, String phoneNumber, String message) {
+        template.appendTo(out, phoneNumber, message);
     }
 }
 
 class GenericPush implements PushNotification {
-    private final String priorityLabel;
-    private final String config;
+    private final MessageTemplate template;
     
     public GenericPush(String priorityLabel, String config) {
-        this.priorityLabel = priorityLabel;
-        this.config = config;
+        this.template = MessageTemplate.compile(
+            "=== {label} PUSH NOTIFICATION ===\nDevice: {0}\nTitle: {prefix}{1}\nBody: {2}\n{config}\n\n",
+            MessageTemplate.senderConstants(priorityLabel, config));
     }
     
     public void send(String deviceToken, String title, String body) {
-        System.out.println("=== " + priorityLabel + " PUSH NOTIFICATION ===");
-        System.out.println("Device: " + deviceToken);
-        System.out.println("Title: " + (priorityLabel.equals("NORMAL") ? "" : "[" + priorityLabel + "] ") + title);
-        System.out.println("Body: " + body);
-        System.out.println(config + "\n");
+        StringBuilder out = MessageTemplate.buffer();
+        render(out, deviceToken, title, body);
+        System.out.print(out);
+    }
+    
+    void render(StringBuilder out, String deviceToken, String title, String body) {
+        template.appendTo(out, deviceToken, title, body);
     }
 }
 
 class GenericSlack implements SlackNotification {
-    private final String priorityLabel;
-    private final String emoji;
-    private final String config;
+    private final MessageTemplate template;
     
     public GenericSlack(String priorityLabel, String emoji, String config) {
-        this.priorityLabel = priorityLabel;
-        this.emoji = emoji;
-        this.config = config;
+        Map<String, String> constants = MessageTemplate.senderConstants(priorityLabel, config);
+        constants.put("emoji", emoji);
+        this.template = MessageTemplate.compile(
+            "=== {label} SLACK MESSAGE ===\nChannel: {0}\nMessage: {emoji} {1}\n{config}\n\n", constants);
     }
     
     public void send(String channel, String message) {
-        System.out.println("=== " + priorityLabel + " SLACK MESSAGE ===");
-        System.out.println("Channel: " + channel);
-        System.out.println("Message: " + emoji + " " + message);
-        System.out.println(config + "\n");
+        StringBuilder out = MessageTemplate.buffer();
+        render(out, channel, message);
+        System.out.print(out);
+    }
+    
+    void render(StringBuilder out, String channel, String message) {
+        template.appendTo(out, channel, message);
     }
 }
 
@@ -104,7 +278,10 @@ class GenericSlack implements SlackNotification {
 // ABSTRACT FACTORY
 // ============================================
 
+enum Priority { URGENT, NORMAL }
+
 interface NotificationFactory {
+    Priority getPriority();
     EmailNotification createEmail();
     SMSNotification createSMS();
     PushNotification createPush();
@@ -115,66 +292,1087 @@ interface NotificationFactory {
 // CONCRETE FACTORIES
 // ============================================
 
+// Generic senders are immutable and stateless, so each factory hands out the same shared instances.
+
 class UrgentNotificationFactory implements NotificationFactory {
-    public EmailNotification createEmail() {
-        return new GenericEmail("URGENT", "Priority: HIGH\nUsing SMTP with encryption\nAdding red flag marker");
+    private static final EmailNotification EMAIL =
+        new GenericEmail("URGENT", "Priority: HIGH\nUsing SMTP with encryption\nAdding red flag marker");
+    private static final SMSNotification SMS =
+        new GenericSMS("URGENT", "Using premium SMS gateway\nRetry on failure: 3 times");
+    private static final PushNotification PUSH =
+        new GenericPush("URGENT", "Sound: alarm.mp3\nBadge: 1\nVibration: enabled");
+    private static final SlackNotification SLACK =
+        new GenericSlack("URGENT", ":rotating_light:", "Mention: @channel\nColor: danger");
+    
+    public Priority getPriority() { return Priority.URGENT; }
+    public EmailNotification createEmail() { return EMAIL; }
+    public SMSNotification createSMS() { return SMS; }
+    public PushNotification createPush() { return PUSH; }
+    public SlackNotification createSlack() { return SLACK; }
+}
+
+class NormalNotificationFactory implements NotificationFactory {
+    private static final EmailNotification EMAIL =
+        new GenericEmail("NORMAL", "Priority: NORMAL\nUsing standard SMTP");
+    private static final SMSNotification SMS =
+        new GenericSMS("NORMAL", "Using standard SMS gateway");
+    private static final PushNotification PUSH =
+        new GenericPush("NORMAL", "Sound: default.mp3");
+    private static final SlackNotification SLACK =
+        new GenericSlack("NORMAL", "", "Color: good");
+    
+    public Priority getPriority() { return Priority.NORMAL; }
+    public EmailNotification createEmail() { return EMAIL; }
+    public SMSNotification createSMS() { return SMS; }
+    public PushNotification createPush() { return PUSH; }
+    public SlackNotification createSlack() { return SLACK; }
+}
+
+// Senders resolved once from a factory, so sending does not go back through the factory.
+final class ChannelSenders {
+    private final Priority priority;
+    private final EmailNotification email;
+    private final SMSNotification sms;
+    private final PushNotification push;
+    private final SlackNotification slack;
+    
+    private ChannelSenders(NotificationFactory factory) {
+        this.priority = factory.getPriority();
+        this.email = factory.createEmail();
+        this.sms = factory.createSMS();
+        this.push = factory.createPush();
+        this.slack = factory.createSlack();
     }
-    public SMSNotification createSMS() {
-        return new GenericSMS("URGENT", "Using premium SMS gateway\nRetry on failure: 3 times");
+    
+    public static ChannelSenders from(NotificationFactory factory) {
+        return new ChannelSenders(factory);
     }
-    public PushNotification createPush() {
-        return new GenericPush("URGENT", "Sound: alarm.mp3\nBadge: 1\nVibration: enabled");
+    
+    public Priority priority() { return priority; }
+    public EmailNotification email() { return email; }
+    public SMSNotification sms() { return sms; }
+    public PushNotification push() { return push; }
+    public SlackNotification slack() { return slack; }
+}
+
+
+// ============================================
+// RATE LIMITING AND RETRIES
+// ============================================
+
+/**
+ * Lock-free token bucket (kept as a theoretical arrival time, as in GCRA).
+ * Instead of refusing a message when empty, it reserves the next free slot and says how long to wait,
+ * so throttled messages keep their order and nobody polls for tokens.
+ */
+final class TokenBucket {
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final long maxWaitNanos;
+    private final AtomicLong nextSlotNanos;
+    
+    public TokenBucket(double permitsPerSecond, int burst, long maxWaitMillis) {
+        if (permitsPerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.intervalNanos = (long) (1_000_000_000L / permitsPerSecond);
+        this.burstNanos = (burst - 1) * intervalNanos;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.nextSlotNanos = new AtomicLong(System.nanoTime());
     }
-    public SlackNotification createSlack() {
-        return new GenericSlack("URGENT", ":rotating_light:", "Mention: @channel\nColor: danger");
+    
+    /**
+     * Reserves one permit.
+     * @return nanoseconds to wait before using it (0 = now), or -1 if the wait would exceed the maximum
+     */
+    public long reserve(long nowNanos) {
+        while (true) {
+            long nextSlot = nextSlotNanos.get();
+            long slot = Math.max(nextSlot, nowNanos);
+            long wait = slot - burstNanos - nowNanos;
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (nextSlotNanos.compareAndSet(nextSlot, slot + intervalNanos)) {
+                return Math.max(0, wait);
+            }
+        }
     }
 }
 
-class NormalNotificationFactory implements NotificationFactory {
-    public EmailNotification createEmail() {
-        return new GenericEmail("NORMAL", "Priority: NORMAL\nUsing standard SMTP");
+final class RetryPolicy {
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    
+    public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        if (maxAttempts <= 0 || initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Invalid retry policy");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+    
+    public static RetryPolicy retries(int retries) {
+        return new RetryPolicy(retries + 1, 100, 10_000);
+    }
+    
+    public int getMaxAttempts() { return maxAttempts; }
+    
+    // Doubles after each failed attempt: 100 ms, 200 ms, 400 ms... capped at the maximum
+    public long backoffNanos(int failedAttempts) {
+        int shift = Math.min(failedAttempts - 1, 30);
+        return TimeUnit.MILLISECONDS.toNanos(Math.min(initialBackoffMillis << shift, maxBackoffMillis));
+    }
+}
+
+/**
+ * Hashed timer wheel: one thread tracks every delayed send and retry, however many are pending.
+ * The wheel thread only hands due tasks to the executor (a virtual thread each by default),
+ * so a slow gateway call never holds up the other timers.
+ */
+final class TimerWheel implements AutoCloseable {
+    private final long tickNanos;
+    private final List<ArrayDeque<Timeout>> slots = new ArrayList<>();
+    private final ConcurrentLinkedQueue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();  // scheduled or running
+    private final ExecutorService executor;
+    private final Thread thread;
+    private final long startNanos = System.nanoTime();
+    private long tick;                     // only touched by the wheel thread
+    private volatile boolean running = true;
+    
+    public TimerWheel() {
+        this(10, 512, Executors.newVirtualThreadPerTaskExecutor());
+    }
+    
+    public TimerWheel(long tickMillis, int slotCount, ExecutorService executor) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.executor = executor;
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayDeque<>());
+        }
+        this.thread = new Thread(this::run, "notify-timer-wheel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    public void schedule(long delayNanos, Runnable task) {
+        pending.incrementAndGet();
+        incoming.add(new Timeout(System.nanoTime() + delayNanos, task));
+    }
+    
+    public int getPendingCount() {
+        return pending.get();
+    }
+    
+    /**
+     * Waits until every scheduled task (including retries they schedule) has run,
+     * then stops the thread and shuts the executor down.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.close();
+    }
+    
+    private void run() {
+        while (running || pending.get() > 0) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                LockSupport.parkNanos(sleepNanos);
+                continue;
+            }
+            tick++;
+            transferIncoming();
+            fire(slots.get((int) (tick % slots.size())));
+        }
+    }
+    
+    private void transferIncoming() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            long dueTick = Math.max(tick, (timeout.deadlineNanos - startNanos + tickNanos - 1) / tickNanos);
+            timeout.remainingRounds = (dueTick - tick) / slots.size();
+            slots.get((int) (dueTick % slots.size())).add(timeout);
+        }
+    }
+    
+    private void fire(ArrayDeque<Timeout> slot) {
+        for (int i = slot.size(); i > 0; i--) {
+            Timeout timeout = slot.poll();
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                slot.add(timeout);
+                continue;
+            }
+            try {
+                executor.execute(() -> runTask(timeout.task));
+            } catch (RejectedExecutionException e) {
+                pending.decrementAndGet();
+                System.out.println("Timer task rejected: " + e.getMessage());
+            }
+        }
+    }
+    
+    // A task that schedules a retry does so before it counts as done, so close() waits for the retry too
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            System.out.println("Timer task failed: " + e.getMessage());
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+    
+    private static final class Timeout {
+        final long deadlineNanos;
+        final Runnable task;
+        long remainingRounds;
+        
+        Timeout(long deadlineNanos, Runnable task) {
+            this.deadlineNanos = deadlineNanos;
+            this.task = task;
+        }
+    }
+}
+
+/**
+ * Rate limit and retry policy of one channel's gateway, shared by every sender that uses it.
+ * A send goes out at once when a permit is free; otherwise it is parked on the timer wheel until its slot,
+ * and a failed send is retried after an exponential backoff (each retry takes a permit again).
+ */
+final class ChannelGuard {
+    private final Channel channel;
+    private final TokenBucket bucket;
+    private final RetryPolicy retryPolicy;
+    private final TimerWheel wheel;
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    
+    public ChannelGuard(Channel channel, TokenBucket bucket, RetryPolicy retryPolicy, TimerWheel wheel) {
+        this.channel = channel;
+        this.bucket = bucket;
+        this.retryPolicy = retryPolicy;
+        this.wheel = wheel;
+    }
+    
+    public static Map<Channel, ChannelGuard> defaults(TimerWheel wheel) {
+        Map<Channel, ChannelGuard> guards = new EnumMap<>(Channel.class);
+        guards.put(Channel.EMAIL, new ChannelGuard(Channel.EMAIL, new TokenBucket(100, 20, 60_000), RetryPolicy.retries(3), wheel));
+        guards.put(Channel.SMS, new ChannelGuard(Channel.SMS, new TokenBucket(10, 5, 60_000), RetryPolicy.retries(3), wheel));
+        guards.put(Channel.PUSH, new ChannelGuard(Channel.PUSH, new TokenBucket(500, 100, 10_000), RetryPolicy.retries(2), wheel));
+        guards.put(Channel.SLACK, new ChannelGuard(Channel.SLACK, new TokenBucket(1, 3, 60_000), RetryPolicy.retries(3), wheel));
+        return guards;
+    }
+    
+    public void submit(String target, Runnable send) {
+        new Attempt(target, send).run();
+    }
+    
+    public long getDelivered() { return delivered.get(); }
+    public long getRetried() { return retried.get(); }
+    public long getFailed() { return failed.get(); }
+    public long getRejected() { return rejected.get(); }
+    
+    private final class Attempt implements Runnable {
+        private final String target;
+        private final Runnable send;
+        private int failures;  // one run at a time; the wheel's queue hands the attempt between threads
+        
+        Attempt(String target, Runnable send) {
+            this.target = target;
+            this.send = send;
+        }
+        
+        // Takes a permit, then sends now or once the permit's slot comes up
+        @Override
+        public void run() {
+            long wait = bucket.reserve(System.nanoTime());
+            if (wait < 0) {
+                rejected.incrementAndGet();
+                System.out.println("Rate limit backlog full, dropping " + channel + " to " + target);
+            } else if (wait == 0) {
+                sendOnce();
+            } else {
+                wheel.schedule(wait, this::sendOnce);
+            }
+        }
+        
+        private void sendOnce() {
+            try {
+                send.run();
+                delivered.incrementAndGet();
+            } catch (RuntimeException e) {
+                failures++;
+                if (failures < retryPolicy.getMaxAttempts()) {
+                    retried.incrementAndGet();
+                    wheel.schedule(retryPolicy.backoffNanos(failures), this);
+                } else {
+                    failed.incrementAndGet();
+                    System.out.println("Giving up on " + channel + " to " + target + " after " + failures
+                        + " attempts: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
+
+// Decorators that route each product's sends through its channel guard
+
+class GuardedEmail implements EmailNotification {
+    private final EmailNotification delegate;
+    private final ChannelGuard guard;
+    
+    public GuardedEmail(EmailNotification delegate, ChannelGuard guard) {
+        this.delegate = delegate;
+        this.guard = guard;
+    }
+    
+    public void send(String recipient, String subject, String message) {
+        guard.submit(recipient, () -> delegate.send(recipient, subject, message));
+    }
+}
+
+class GuardedSMS implements SMSNotification {
+    private final SMSNotification delegate;
+    private final ChannelGuard guard;
+    
+    public GuardedSMS(SMSNotification delegate, ChannelGuard guard) {
+        this.delegate = delegate;
+        this.guard = guard;
+    }
+    
+    public void send(String phoneNumber, String message) {
+        guard.submit(phoneNumber, () -> delegate.send(phoneNumber, message));
+    }
+}
+
+class GuardedPush implements PushNotification {
+    private final PushNotification delegate;
+    private final ChannelGuard guard;
+    
+    public GuardedPush(PushNotification delegate, ChannelGuard guard) {
+        this.delegate = delegate;
+        this.guard = guard;
+    }
+    
+    public void send(String deviceToken, String title, String body) {
+        guard.submit(deviceToken, () -> delegate.send(deviceToken, title, body));
+    }
+}
+
+class GuardedSlack implements SlackNotification {
+    private final SlackNotification delegate;
+    private final ChannelGuard guard;
+    
+    public GuardedSlack(SlackNotification delegate, ChannelGuard guard) {
+        this.delegate = delegate;
+        this.guard = guard;
+    }
+    
+    public void send(String channel, String message) {
+        guard.submit(channel, () -> delegate.send(channel, message));
+    }
+}
+
+// Wraps another factory's products so they share the given per-channel guards
+class GuardedNotificationFactory implements NotificationFactory {
+    private final Priority priority;
+    private final EmailNotification email;
+    private final SMSNotification sms;
+    private final PushNotification push;
+    private final SlackNotification slack;
+    
+    public GuardedNotificationFactory(NotificationFactory factory, Map<Channel, ChannelGuard> guards) {
+        this.priority = factory.getPriority();
+        this.email = new GuardedEmail(factory.createEmail(), guards.get(Channel.EMAIL));
+        this.sms = new GuardedSMS(factory.createSMS(), guards.get(Channel.SMS));
+        this.push = new GuardedPush(factory.createPush(), guards.get(Channel.PUSH));
+        this.slack = new GuardedSlack(factory.createSlack(), guards.get(Channel.SLACK));
+    }
+    
+    public Priority getPriority() { return priority; }
+    public EmailNotification createEmail() { return email; }
+    public SMSNotification createSMS() { return sms; }
+    public PushNotification createPush() { return push; }
+    public SlackNotification createSlack() { return slack; }
+}
+
+// ============================================
+// ASYNCHRONOUS DISPATCH
+// ============================================
+
+enum Channel { EMAIL, SMS, PUSH, SLACK }
+
+enum BackpressurePolicy {
+    BLOCK,  // caller waits for room in the queue
+    DROP,   // message is discarded and counted
+    SPILL   // message goes to an overflow list as large as the queue, drained after it; dropped beyond that
+}
+
+final class Notification {
+    private final Channel channel;
+    private final ChannelSenders senders;
+    private final String target;  // recipient, phone number, device token or Slack channel
+    private final String title;   // email subject or push title, null otherwise
+    private final String body;
+    private final long enqueuedAtNanos;
+    
+    public Notification(Channel channel, ChannelSenders senders, String target, String title, String body) {
+        this.channel = channel;
+        this.senders = senders;
+        this.target = target;
+        this.title = title;
+        this.body = body;
+        this.enqueuedAtNanos = System.nanoTime();
+    }
+    
+    public Channel getChannel() { return channel; }
+    public Priority getPriority() { return senders.priority(); }
+    public long getEnqueuedAtNanos() { return enqueuedAtNanos; }
+    public ChannelSenders getSenders() { return senders; }
+    public String getTarget() { return target; }
+    public String getTitle() { return title; }
+    public String getBody() { return body; }
+    
+    public Notification withBody(String newBody) {
+        return new Notification(channel, senders, target, title, newBody);
     }
-    public SMSNotification createSMS() {
-        return new GenericSMS("NORMAL", "Using standard SMS gateway");
+    
+    public void deliver() {
+        switch (channel) {
+            case EMAIL: senders.email().send(target, title, body); break;
+            case SMS: senders.sms().send(target, body); break;
+            case PUSH: senders.push().send(target, title, body); break;
+            case SLACK: senders.slack().send(target, body); break;
+        }
+    }
+}
+
+final class DispatchSettings {
+    private final int queueCapacity;
+    private final int workers;
+    private final int maxBatchSize;
+    private final BackpressurePolicy policy;
+    private final int urgentWeight;           // URGENT batches served per NORMAL batch
+    private final long starvationLimitMillis; // NORMAL older than this gets every other batch
+    
+    public DispatchSettings(int queueCapacity, int workers, int maxBatchSize, BackpressurePolicy policy) {
+        this(queueCapacity, workers, maxBatchSize, policy, 8, 500);
+    }
+    
+    public DispatchSettings(int queueCapacity, int workers, int maxBatchSize, BackpressurePolicy policy,
+                            int urgentWeight, long starvationLimitMillis) {
+        if (queueCapacity <= 0 || workers <= 0 || maxBatchSize <= 0 || urgentWeight <= 0) {
+            throw new IllegalArgumentException("Queue capacity, workers, batch size and weight must be positive");
+        }
+        this.queueCapacity = queueCapacity;
+        this.workers = workers;
+        this.maxBatchSize = maxBatchSize;
+        this.policy = policy;
+        this.urgentWeight = urgentWeight;
+        this.starvationLimitMillis = starvationLimitMillis;
+    }
+    
+    public int getQueueCapacity() { return queueCapacity; }
+    public int getWorkers() { return workers; }
+    public int getMaxBatchSize() { return maxBatchSize; }
+    public BackpressurePolicy getPolicy() { return policy; }
+    public int getUrgentWeight() { return urgentWeight; }
+    public long getStarvationLimitMillis() { return starvationLimitMillis; }
+}
+
+class LaneMetrics {
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    
+    void recordDelivery(long latencyNanos) {
+        delivered.incrementAndGet();
+        totalLatencyNanos.addAndGet(latencyNanos);
+        maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+    
+    void recordDrop() {
+        dropped.incrementAndGet();
+    }
+    
+    public long getDelivered() { return delivered.get(); }
+    public long getDropped() { return dropped.get(); }
+    public long getMaxLatencyMicros() { return maxLatencyNanos.get() / 1_000; }
+    
+    public long getAverageLatencyMicros() {
+        long count = delivered.get();
+        return count == 0 ? 0 : totalLatencyNanos.get() / count / 1_000;
+    }
+}
+
+// One bounded queue (plus its overflow list) per priority within a channel.
+// While the overflow list holds messages, new ones join it rather than the queue, so spilled messages
+// are not overtaken by later ones and the lane stays first in, first out.
+class PriorityLane {
+    private final BlockingQueue<Notification> queue;
+    private final ConcurrentLinkedQueue<Notification> spill = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger spilled = new AtomicInteger();
+    private final int spillCapacity;
+    private final LaneMetrics metrics = new LaneMetrics();
+    
+    PriorityLane(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.spillCapacity = capacity;
+    }
+    
+    /**
+     * Adds the message without blocking. With BLOCK a full queue returns false without counting a drop,
+     * and the caller waits for room with {@link #offer(Notification, long)}.
+     */
+    boolean submit(Notification notification, BackpressurePolicy policy) {
+        if (spilled.get() == 0 && queue.offer(notification)) {
+            return true;
+        }
+        switch (policy) {
+            case BLOCK:
+                return false;
+            case SPILL:
+                if (spilled.incrementAndGet() <= spillCapacity) {
+                    spill.add(notification);
+                    return true;
+                }
+                spilled.decrementAndGet();
+                metrics.recordDrop();
+                return false;
+            default:
+                metrics.recordDrop();
+                return false;
+        }
+    }
+    
+    boolean offer(Notification notification, long timeoutNanos) throws InterruptedException {
+        return queue.offer(notification, timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+    
+    void drainTo(List<Notification> batch, int maxBatchSize) {
+        queue.drainTo(batch, maxBatchSize - batch.size());
+        while (batch.size() < maxBatchSize) {
+            Notification overflow = spill.poll();
+            if (overflow == null) {
+                return;
+            }
+            spilled.decrementAndGet();
+            batch.add(overflow);
+        }
+    }
+    
+    long oldestWaitNanos(long now) {
+        Notification oldest = queue.peek();
+        if (oldest == null) {
+            oldest = spill.peek();
+        }
+        return oldest == null ? 0 : now - oldest.getEnqueuedAtNanos();
+    }
+    
+    boolean isEmpty() { return queue.isEmpty() && spill.isEmpty(); }
+    int getDepth() { return queue.size() + spill.size(); }
+    LaneMetrics getMetrics() { return metrics; }
+}
+
+/**
+ * Delivers one channel's notifications from two priority lanes.
+ * URGENT gets {@code urgentWeight} batches for every NORMAL batch, and a NORMAL message that has
+ * waited longer than the starvation limit is served next regardless of weight.
+ */
+class ChannelPipeline {
+    private static final long BLOCK_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    
+    private final Channel channel;
+    private final DispatchSettings settings;
+    private final Map<Priority, PriorityLane> lanes = new EnumMap<>(Priority.class);
+    private final Semaphore pending = new Semaphore(0);
+    private final List<Thread> workers = new ArrayList<>();
+    // Submits share the read lock; close takes the write lock, so no message can be queued once it stops
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean running = true;
+    
+    public ChannelPipeline(Channel channel, DispatchSettings settings) {
+        this.channel = channel;
+        this.settings = settings;
+        for (Priority priority : Priority.values()) {
+            lanes.put(priority, new PriorityLane(settings.getQueueCapacity()));
+        }
+        for (int i = 0; i < settings.getWorkers(); i++) {
+            Thread worker = new Thread(this::runWorker, "notify-" + channel.name().toLowerCase() + "-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+    
+    public boolean submit(Notification notification) {
+        PriorityLane lane = lanes.get(notification.getPriority());
+        BackpressurePolicy policy = settings.getPolicy();
+        boolean waiting = false;
+        while (true) {
+            closeLock.readLock().lock();
+            try {
+                if (!running) {
+                    throw new IllegalStateException("Dispatcher is closed");
+                }
+                // BLOCK waits for room in short slices, letting go of the lock in between so close() can get in
+                boolean accepted = waiting ? lane.offer(notification, BLOCK_SLICE_NANOS) : lane.submit(notification, policy);
+                if (accepted) {
+                    pending.release();
+                    return true;
+                }
+                if (policy != BackpressurePolicy.BLOCK) {
+                    return false;
+                }
+                waiting = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lane.getMetrics().recordDrop();
+                return false;
+            } finally {
+                closeLock.readLock().unlock();
+            }
+        }
+    }
+    
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (PriorityLane lane : lanes.values()) {
+            dropped += lane.getMetrics().getDropped();
+        }
+        return dropped;
+    }
+    
+    public int getQueueDepth() {
+        int depth = 0;
+        for (PriorityLane lane : lanes.values()) {
+            depth += lane.getDepth();
+        }
+        return depth;
+    }
+    
+    public int getQueueDepth(Priority priority) { return lanes.get(priority).getDepth(); }
+    public LaneMetrics getMetrics(Priority priority) { return lanes.get(priority).getMetrics(); }
+    
+    public void close() throws InterruptedException {
+        closeLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+    
+    private void runWorker() {
+        List<Notification> batch = new ArrayList<>(settings.getMaxBatchSize());
+        PriorityLane urgent = lanes.get(Priority.URGENT);
+        PriorityLane normal = lanes.get(Priority.NORMAL);
+        long starvationLimitNanos = TimeUnit.MILLISECONDS.toNanos(settings.getStarvationLimitMillis());
+        int urgentCredits = settings.getUrgentWeight();
+        boolean normalServedLast = false;
+        
+        while (running || !urgent.isEmpty() || !normal.isEmpty()) {
+            try {
+                if (!pending.tryAcquire(50, TimeUnit.MILLISECONDS) && urgent.isEmpty() && normal.isEmpty()) {
+                    continue;
+                }
+                // A starving NORMAL lane gets one batch, then URGENT goes again: once NORMAL stays past the
+                // limit (a saturated lane does), overriding every pick would starve URGENT instead
+                boolean normalStarving = !normalServedLast
+                    && normal.oldestWaitNanos(System.nanoTime()) > starvationLimitNanos;
+                PriorityLane lane;
+                if (!urgent.isEmpty() && urgentCredits > 0 && !normalStarving) {
+                    lane = urgent;
+                    urgentCredits--;
+                } else if (!normal.isEmpty()) {
+                    lane = normal;
+                    urgentCredits = settings.getUrgentWeight();
+                } else {
+                    lane = urgent;
+                }
+                normalServedLast = lane == normal;
+                
+                lane.drainTo(batch, settings.getMaxBatchSize());
+                for (int taken = 1; taken < batch.size() && pending.tryAcquire(); taken++) {
+                    // one permit per message: the batch consumed the signals of its other messages
+                }
+                deliver(batch);
+                long now = System.nanoTime();
+                for (Notification notification : batch) {
+                    lane.getMetrics().recordDelivery(now - notification.getEnqueuedAtNanos());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+    
+    private void deliver(List<Notification> batch) {
+        if (channel == Channel.SLACK) {
+            deliverSlackBatch(batch);
+            return;
+        }
+        for (Notification notification : batch) {
+            deliverSafely(notification);
+        }
+    }
+    
+    // Several messages for the same Slack channel and priority become a single post
+    private void deliverSlackBatch(List<Notification> batch) {
+        Map<ChannelSenders, Map<String, StringBuilder>> posts = new LinkedHashMap<>();
+        for (Notification notification : batch) {
+            StringBuilder post = posts.computeIfAbsent(notification.getSenders(), senders -> new LinkedHashMap<>())
+                .computeIfAbsent(notification.getTarget(), target -> new StringBuilder());
+            if (post.length() > 0) {
+                post.append('\n');
+            }
+            post.append(notification.getBody());
+        }
+        for (Map.Entry<ChannelSenders, Map<String, StringBuilder>> bySenders : posts.entrySet()) {
+            for (Map.Entry<String, StringBuilder> post : bySenders.getValue().entrySet()) {
+                deliverSafely(new Notification(Channel.SLACK, bySenders.getKey(), post.getKey(), null, post.getValue().toString()));
+            }
+        }
+    }
+    
+    private void deliverSafely(Notification notification) {
+        try {
+            notification.deliver();
+        } catch (RuntimeException e) {
+            System.out.println("Failed to deliver " + channel + " to " + notification.getTarget() + ": " + e.getMessage());
+        }
+    }
+}
+
+class NotificationDispatcher implements AutoCloseable {
+    private final Map<Channel, ChannelPipeline> pipelines = new EnumMap<>(Channel.class);
+    
+    public NotificationDispatcher(Map<Channel, DispatchSettings> settings) {
+        for (Channel channel : Channel.values()) {
+            DispatchSettings channelSettings = settings.get(channel);
+            if (channelSettings == null) {
+                throw new IllegalArgumentException("Missing dispatch settings for " + channel);
+            }
+            pipelines.put(channel, new ChannelPipeline(channel, channelSettings));
+        }
+    }
+    
+    public static NotificationDispatcher withDefaults() {
+        Map<Channel, DispatchSettings> settings = new EnumMap<>(Channel.class);
+        settings.put(Channel.EMAIL, new DispatchSettings(10_000, 4, 32, BackpressurePolicy.BLOCK));
+        settings.put(Channel.SMS, new DispatchSettings(10_000, 2, 32, BackpressurePolicy.BLOCK));
+        settings.put(Channel.PUSH, new DispatchSettings(10_000, 4, 64, BackpressurePolicy.DROP));
+        settings.put(Channel.SLACK, new DispatchSettings(10_000, 1, 100, BackpressurePolicy.SPILL));
+        return new NotificationDispatcher(settings);
+    }
+    
+    /**
+     * Queues a notification and returns immediately (unless the channel uses BLOCK and is full).
+     * @return false if the message was dropped by the channel's backpressure policy
+     */
+    public boolean submit(Notification notification) {
+        return pipelines.get(notification.getChannel()).submit(notification);
+    }
+    
+    public long getDroppedCount(Channel channel) {
+        return pipelines.get(channel).getDroppedCount();
     }
-    public PushNotification createPush() {
-        return new GenericPush("NORMAL", "Sound: default.mp3");
+    
+    public int getQueueDepth(Channel channel) {
+        return pipelines.get(channel).getQueueDepth();
     }
-    public SlackNotification createSlack() {
-        return new GenericSlack("NORMAL", "", "Color: good");
+    
+    public int getQueueDepth(Channel channel, Priority priority) {
+        return pipelines.get(channel).getQueueDepth(priority);
+    }
+    
+    public LaneMetrics getLaneMetrics(Channel channel, Priority priority) {
+        return pipelines.get(channel).getMetrics(priority);
+    }
+    
+    /**
+     * Stops accepting messages, delivers everything already queued, then stops the workers.
+     */
+    @Override
+    public void close() {
+        try {
+            for (ChannelPipeline pipeline : pipelines.values()) {
+                pipeline.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
 
+// ============================================
+// ALERT COALESCING
+// ============================================
+
+/**
+ * Collapses identical notifications (same channel, recipient and content) seen within a window.
+ * The first one is delivered right away; the duplicates are only counted, and when the window
+ * closes a single summary carrying the count is delivered in their place.
+ *
+ * Keys live in a ring of time buckets: a key is recorded in the bucket that was current when it was
+ * first seen, and each tick drops the oldest bucket as a whole. The number of tracked keys is capped;
+ * beyond the cap, notifications are simply delivered uncoalesced.
+ */
+class AlertCoalescer implements AutoCloseable {
+    private static final int CLOSED = Integer.MIN_VALUE;
+    
+    private final AtomicReferenceArray<Map<Long, Entry>> buckets;
+    private final long bucketMillis;
+    private final int maxKeys;
+    private final AtomicInteger trackedKeys = new AtomicInteger();
+    private final AtomicLong suppressedCount = new AtomicLong();
+    private final Thread ticker;
+    private volatile int current;
+    private volatile boolean running = true;
+    
+    public AlertCoalescer(long windowMillis) {
+        this(windowMillis, 8, 10_000);
+    }
+    
+    public AlertCoalescer(long windowMillis, int bucketCount, int maxKeys) {
+        if (bucketCount < 2 || windowMillis < bucketCount || maxKeys <= 0) {
+            throw new IllegalArgumentException("Window must span at least two buckets of 1 ms and keys must be positive");
+        }
+        this.buckets = new AtomicReferenceArray<>(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            buckets.set(i, new ConcurrentHashMap<>());
+        }
+        this.bucketMillis = windowMillis / bucketCount;
+        this.maxKeys = maxKeys;
+        this.ticker = new Thread(this::runTicker, "notify-coalescer");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+    
+    /**
+     * Records a notification.
+     * @param sink where the summary goes if duplicates of this notification get collapsed
+     * @return true if the caller should deliver it now, false if it was counted as a duplicate
+     */
+    public boolean admit(Notification notification, Consumer<Notification> sink) {
+        long key = keyOf(notification);
+        int newest = current;
+        for (int age = 0; age < buckets.length(); age++) {
+            Entry entry = buckets.get(Math.floorMod(newest - age, buckets.length())).get(key);
+            if (entry != null && entry.matches(notification) && entry.countDuplicate()) {
+                suppressedCount.incrementAndGet();
+                return false;
+            }
+        }
+        
+        if (trackedKeys.incrementAndGet() > maxKeys) {
+            trackedKeys.decrementAndGet();
+            return true;
+        }
+        Entry entry = new Entry(notification, sink);
+        Entry existing = buckets.get(newest).putIfAbsent(key, entry);
+        if (existing == null) {
+            return true;
+        }
+        trackedKeys.decrementAndGet();
+        // Another thread recorded the same key first, or the key hash collided with other content
+        if (existing.matches(notification) && existing.countDuplicate()) {
+            suppressedCount.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+    
+    public int getTrackedKeys() {
+        return trackedKeys.get();
+    }
+    
+    public long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+    
+    /**
+     * Stops the ticker and delivers the summaries of every open window.
+     */
+    @Override
+    public void close() {
+        running = false;
+        ticker.interrupt();
+        try {
+            ticker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (int i = 0; i < buckets.length(); i++) {
+            expire(buckets.getAndSet(i, new ConcurrentHashMap<>()));
+        }
+    }
+    
+    private void runTicker() {
+        while (running) {
+            try {
+                Thread.sleep(bucketMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            // The oldest bucket becomes the current one: its keys have been open for a full window
+            int next = (current + 1) % buckets.length();
+            Map<Long, Entry> expired = buckets.getAndSet(next, new ConcurrentHashMap<>());
+            current = next;
+            expire(expired);
+        }
+    }
+    
+    private void expire(Map<Long, Entry> bucket) {
+        trackedKeys.addAndGet(-bucket.size());
+        for (Entry entry : bucket.values()) {
+            entry.close();
+        }
+    }
+    
+    // channel and recipient in the high 32 bits, content in the low 32 bits
+    private static long keyOf(Notification notification) {
+        int recipient = 31 * notification.getChannel().ordinal() + notification.getTarget().hashCode();
+        int content = 31 * Objects.hashCode(notification.getTitle()) + Objects.hashCode(notification.getBody());
+        return ((long) recipient << 32) | (content & 0xFFFFFFFFL);
+    }
+    
+    private static final class Entry {
+        private final Notification first;
+        private final Consumer<Notification> sink;
+        private final AtomicInteger duplicates = new AtomicInteger();
+        
+        Entry(Notification first, Consumer<Notification> sink) {
+            this.first = first;
+            this.sink = sink;
+        }
+        
+        boolean matches(Notification notification) {
+            return first.getChannel() == notification.getChannel()
+                && first.getSenders() == notification.getSenders()
+                && first.getTarget().equals(notification.getTarget())
+                && Objects.equals(first.getTitle(), notification.getTitle())
+                && Objects.equals(first.getBody(), notification.getBody());
+        }
+        
+        // Fails once the window is closed, so a late duplicate starts a new window instead of being lost
+        boolean countDuplicate() {
+            int count;
+            do {
+                count = duplicates.get();
+                if (count == CLOSED) {
+                    return false;
+                }
+            } while (!duplicates.compareAndSet(count, count + 1));
+            return true;
+        }
+        
+        void close() {
+            int count = duplicates.getAndSet(CLOSED);
+            if (count > 0) {
+                sink.accept(first.withBody(first.getBody() + " (repeated " + count + " more times)"));
+            }
+        }
+    }
+}
 
 // ==============
 // CLIENT CODE
 // ==============
 
 class NotificationService {
-    private NotificationFactory factory;
+    private volatile ChannelSenders senders;
+    private final NotificationDispatcher dispatcher; // null = deliver on the caller's thread
+    private final AlertCoalescer coalescer;          // null = every notification is delivered
     
     public NotificationService(NotificationFactory factory) {
-        this.factory = factory;
+        this(factory, null, null);
+    }
+    
+    public NotificationService(NotificationFactory factory, NotificationDispatcher dispatcher) {
+        this(factory, dispatcher, null);
+    }
+    
+    public NotificationService(NotificationFactory factory, NotificationDispatcher dispatcher, AlertCoalescer coalescer) {
+        this.senders = ChannelSenders.from(factory);
+        this.dispatcher = dispatcher;
+        this.coalescer = coalescer;
     }
     
     public void setFactory(NotificationFactory factory) {
-        this.factory = factory;
+        this.senders = ChannelSenders.from(factory);
     }
     
+    // Without a coalescer or dispatcher nothing needs to hold the message, so it goes straight to the sender
+    
     public void sendEmail(String recipient, String subject, String message) {
-        factory.createEmail().send(recipient, subject, message);
+        if (isDirect()) {
+            senders.email().send(recipient, subject, message);
+        } else {
+            send(new Notification(Channel.EMAIL, senders, recipient, subject, message));
+        }
     }
     
     public void sendSMS(String phoneNumber, String message) {
-        factory.createSMS().send(phoneNumber, message);
+        if (isDirect()) {
+            senders.sms().send(phoneNumber, message);
+        } else {
+            send(new Notification(Channel.SMS, senders, phoneNumber, null, message));
+        }
     }
     
     public void sendPush(String deviceToken, String title, String body) {
-        factory.createPush().send(deviceToken, title, body);
+        if (isDirect()) {
+            senders.push().send(deviceToken, title, body);
+        } else {
+            send(new Notification(Channel.PUSH, senders, deviceToken, title, body));
+        }
     }
     
     public void sendSlack(String channel, String message) {
-        factory.createSlack().send(channel, message);
+        if (isDirect()) {
+            senders.slack().send(channel, message);
+        } else {
+            send(new Notification(Channel.SLACK, senders, channel, null, message));
+        }
+    }
+    
+    private boolean isDirect() {
+        return coalescer == null && dispatcher == null;
+    }
+    
+    private void send(Notification notification) {
+        if (coalescer == null || coalescer.admit(notification, this::deliver)) {
+            deliver(notification);
+        }
+    }
+    
+    private void deliver(Notification notification) {
+        if (dispatcher == null) {
+            notification.deliver();
+        } else {
+            dispatcher.submit(notification);
+        }
     }
 }
 
@@ -199,5 +1397,203 @@ public class NotificationDemo {
         service.sendSMS("+1234567890", "Your order has been shipped and will arrive tomorrow");
         System.out.println("Test 5: Normal Slack");
         service.sendSlack("#general", "New feature deployed successfully");
+        
+        System.out.println("Test 6: Asynchronous Slack burst (batched into one post)");
+        try (NotificationDispatcher dispatcher = NotificationDispatcher.withDefaults()) {
+            NotificationService asyncService = new NotificationService(new NormalNotificationFactory(), dispatcher);
+            for (int i = 1; i <= 5; i++) {
+                asyncService.sendSlack("#deployments", "Service " + i + " deployed");
+            }
+        }
+        
+        System.out.println("Test 7: Alert storm (duplicates collapsed into one summary)");
+        try (AlertCoalescer coalescer = new AlertCoalescer(2_000)) {
+            NotificationService stormService = new NotificationService(new UrgentNotificationFactory(), null, coalescer);
+            for (int i = 0; i < 200; i++) {
+                stormService.sendSlack("#incidents", "Database backup failed");
+            }
+        }
+        
+        System.out.println("Test 8: Rate-limited Slack burst and SMS retried on a flaky gateway");
+        try (TimerWheel wheel = new TimerWheel()) {
+            Map<Channel, ChannelGuard> guards = ChannelGuard.defaults(wheel);
+            NotificationService guardedService =
+                new NotificationService(new GuardedNotificationFactory(new NormalNotificationFactory(), guards));
+            for (int i = 1; i <= 5; i++) {
+                guardedService.sendSlack("#deployments", "Canary " + i + " healthy");
+            }
+            
+            SMSNotification sms = new NormalNotificationFactory().createSMS();
+            AtomicInteger calls = new AtomicInteger();
+            SMSNotification flakyGateway = (phoneNumber, message) -> {
+                if (calls.incrementAndGet() <= 2) {
+                    throw new IllegalStateException("gateway timeout");
+                }
+                sms.send(phoneNumber, message);
+            };
+            new GuardedSMS(flakyGateway, guards.get(Channel.SMS)).send("+1234567890", "Your code is 482913");
+        }
+    }
+}
+
+// ============================================
+// TEMPLATE RENDERING BENCHMARK
+// ============================================
+
+// Renders each channel's messages into a reused buffer (nothing is printed) and reports messages per second.
+class NotificationTemplateBenchmark {
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+    private static final String LONG_MESSAGE = "Your order #48213 has been shipped. ".repeat(6);
+    
+    interface Renderer {
+        void render(StringBuilder out);
+    }
+    
+    public static void main(String[] args) {
+        NotificationFactory[] factories = {new UrgentNotificationFactory(), new NormalNotificationFactory()};
+        
+        for (NotificationFactory factory : factories) {
+            GenericEmail email = (GenericEmail) factory.createEmail();
+            GenericSMS sms = (GenericSMS) factory.createSMS();
+            GenericPush push = (GenericPush) factory.createPush();
+            GenericSlack slack = (GenericSlack) factory.createSlack();
+            String priority = factory.getPriority().name();
+            
+            run(priority + " email", out -> email.render(out, "user@example.com", "Order update", LONG_MESSAGE));
+            run(priority + " sms", out -> sms.render(out, "+1234567890", LONG_MESSAGE));
+            run(priority + " push", out -> push.render(out, "device-token-123", "Order update", "Shipped"));
+            run(priority + " slack", out -> slack.render(out, "#deployments", "Service deployed"));
+        }
+    }
+    
+    private static void run(String label, Renderer renderer) {
+        measure(renderer, WARMUP_NANOS);
+        long[] result = measure(renderer, MEASURE_NANOS);
+        double perSecond = result[0] * 1_000_000_000.0 / result[1];
+        System.out.printf("%-14s %,15.0f messages/s   (checksum %d)%n", label, perSecond, result[2]);
     }
-}
\ No newline at end of file
+    
+    // Returns {messages, elapsed nanos, total characters rendered}
+    private static long[] measure(Renderer renderer, long durationNanos) {
+        StringBuilder out = MessageTemplate.buffer();
+        long messages = 0;
+        long characters = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < 1_000; i++) {
+                out.setLength(0);
+                renderer.render(out);
+                characters += out.length();
+            }
+            messages += 1_000;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < durationNanos);
+        return new long[] {messages, elapsed, characters};
+    }
+}
+
+// ============================================
+// URGENT LATENCY CHECK
+// ============================================
+
+// Floods one channel at a time with NORMAL messages from several producers (enough to keep its queues
+// full, and deep enough that NORMAL waits past the starvation limit) while another producer sends an
+// URGENT message every 2 ms, and checks that the URGENT p99 queue wait stays under the target. Senders park 200 us to stand in for a gateway call and print nothing.
+// Exits with status 1 if a channel misses the target.
+class UrgentLatencyCheck {
+    private static final long TARGET_P99_MILLIS = 50;
+    private static final long RUN_MILLIS = 3_000;
+    private static final long SEND_NANOS = 200_000;
+    private static final long URGENT_INTERVAL_NANOS = 2_000_000;
+    private static final int NORMAL_PRODUCERS = 4;
+    
+    public static void main(String[] args) throws InterruptedException {
+        boolean passed = true;
+        for (Channel channel : Channel.values()) {
+            passed &= check(channel);
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+    
+    private static boolean check(Channel channel) throws InterruptedException {
+        long[] urgentWaits = new long[(int) (RUN_MILLIS * 1_000_000 / URGENT_INTERVAL_NANOS) * 2];
+        AtomicInteger urgentCount = new AtomicInteger();
+        Map<Channel, DispatchSettings> settings = new EnumMap<>(Channel.class);
+        for (Channel each : Channel.values()) {
+            settings.put(each, new DispatchSettings(10_000, 2, 16, BackpressurePolicy.BLOCK));
+        }
+        
+        NotificationDispatcher dispatcher = new NotificationDispatcher(settings);
+        NotificationService normal = new NotificationService(factory(Priority.NORMAL, null, null), dispatcher);
+        NotificationService urgent = new NotificationService(factory(Priority.URGENT, urgentWaits, urgentCount), dispatcher);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RUN_MILLIS);
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < NORMAL_PRODUCERS; i++) {
+            producers.add(Thread.ofPlatform().start(() -> {
+                while (System.nanoTime() < deadline) {
+                    send(normal, channel, "flood");
+                }
+            }));
+        }
+        producers.add(Thread.ofPlatform().start(() -> {
+            while (System.nanoTime() < deadline) {
+                send(urgent, channel, Long.toString(System.nanoTime()));
+                LockSupport.parkNanos(URGENT_INTERVAL_NANOS);
+            }
+        }));
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        LaneMetrics normalMetrics = dispatcher.getLaneMetrics(channel, Priority.NORMAL);
+        dispatcher.close();
+        
+        int count = Math.min(urgentCount.get(), urgentWaits.length);
+        long[] waits = Arrays.copyOf(urgentWaits, count);
+        Arrays.sort(waits);
+        double p50 = count == 0 ? 0 : waits[count / 2] / 1e6;
+        double p99 = count == 0 ? 0 : waits[Math.min(count - 1, count * 99 / 100)] / 1e6;
+        boolean passed = count > 0 && p99 <= TARGET_P99_MILLIS;
+        System.out.printf("%-6s URGENT p50 %6.2f ms  p99 %6.2f ms  (%,d sent)   NORMAL %,d delivered, avg wait %,d ms   %s%n",
+            channel, p50, p99, count, normalMetrics.getDelivered(), normalMetrics.getAverageLatencyMicros() / 1_000,
+            passed ? "OK" : "FAILED (target " + TARGET_P99_MILLIS + " ms)");
+        return passed;
+    }
+    
+    private static void send(NotificationService service, Channel channel, String body) {
+        switch (channel) {
+            case EMAIL: service.sendEmail("ops@example.com", "Alert", body); break;
+            case SMS: service.sendSMS("+1234567890", body); break;
+            case PUSH: service.sendPush("device-1", "Alert", body); break;
+            case SLACK: service.sendSlack("#incidents", body); break;
+        }
+    }
+    
+    // Senders that stand in for a gateway call; URGENT ones read their send time back from the body
+    // (a Slack post joins several bodies, one per line) and record how long each message queued
+    private static NotificationFactory factory(Priority priority, long[] waits, AtomicInteger count) {
+        Consumer<String> send = body -> {
+            LockSupport.parkNanos(SEND_NANOS);
+            if (waits == null) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (String line : body.split("\n")) {
+                int index = count.getAndIncrement();
+                if (index < waits.length) {
+                    waits[index] = now - SEND_NANOS - Long.parseLong(line);
+                }
+            }
+        };
+        return new NotificationFactory() {
+            public Priority getPriority() { return priority; }
+            public EmailNotification createEmail() { return (recipient, subject, message) -> send.accept(message); }
+            public SMSNotification createSMS() { return (phoneNumber, message) -> send.accept(message); }
+            public PushNotification createPush() { return (deviceToken, title, body) -> send.accept(body); }
+            public SlackNotification createSlack() { return (slackChannel, message) -> send.accept(message); }
+        };
+    }
+}
@@ -0,0 +1,92 @@
+package refactoring.clean_code.objets;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Allocation per send: NotificationService with senders resolved once, against building a new sender
+ * for every message (what the factories used to do). Look at gc.alloc.rate.norm (bytes per send);
+ * the printed message itself is the only allocation expected on the cached path.
+ *
+ * Usage: java -cp target/benchmarks.jar refactoring.clean_code.objets.NotificationSendBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NotificationSendBenchmark {
+    private static final String MESSAGE = "Your order #48213 has been shipped and will arrive tomorrow";
+
+    private NotificationService service;
+    private PrintStream console;
+
+    @Setup
+    public void setUp() {
+        service = new NotificationService(new NormalNotificationFactory());
+        // Senders print every message; send them nowhere so the console does not dominate
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public void cachedSenderEmail() {
+        service.sendEmail("user@example.com", "Order update", MESSAGE);
+    }
+
+    @Benchmark
+    public void cachedSenderSms() {
+        service.sendSMS("+1234567890", MESSAGE);
+    }
+
+    @Benchmark
+    public void cachedSenderSlack() {
+        service.sendSlack("#deployments", MESSAGE);
+    }
+
+    @Benchmark
+    public void newSenderPerSendEmail() {
+        new GenericEmail("NORMAL", "Priority: NORMAL\nUsing standard SMTP")
+            .send("user@example.com", "Order update", MESSAGE);
+    }
+
+    @Benchmark
+    public void newSenderPerSendSms() {
+        new GenericSMS("NORMAL", "Using standard SMS gateway").send("+1234567890", MESSAGE);
+    }
+
+    @Benchmark
+    public void newSenderPerSendSlack() {
+        new GenericSlack("NORMAL", "", "Color: good").send("#deployments", MESSAGE);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(NotificationSendBenchmark.class.getName())
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}
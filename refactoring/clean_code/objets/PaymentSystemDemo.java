@@ -1,102 +1,974 @@
 package refactoring.clean_code.objets;
 
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// ============================================
+// VALUE OBJECTS
+// ============================================
+
+final class Money {
+    private final long cents;
+    
+    private Money(long cents) {
+        this.cents = cents;
+    }
+    
+    public static Money ofCents(long cents) {
+        return new Money(cents);
+    }
+    
+    public long getCents() { return cents; }
+    public boolean isPositive() { return cents > 0; }
+    
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Money && ((Money) other).cents == cents;
+    }
+    
+    @Override
+    public int hashCode() {
+        return Long.hashCode(cents);
+    }
+    
+    @Override
+    public String toString() {
+        long abs = Math.abs(cents);
+        long rest = abs % 100;
+        return (cents < 0 ? "-" : "") + (abs / 100) + (rest < 10 ? ".0" : ".") + rest;
+    }
+}
+
+// ============================================
+// PAYLOADS
+// ============================================
+
+// What each payment method hands to the gateway, typed instead of a Map or a "a|b" string
+sealed interface PaymentPayload permits CardPayload, WalletPayload, BankAccountPayload, CryptoPayload {
+    PaymentType type();
+}
+
+record CardPayload(String cardNumber, String cvv) implements PaymentPayload {
+    CardPayload {
+        Objects.requireNonNull(cardNumber, "cardNumber");
+        Objects.requireNonNull(cvv, "cvv");
+    }
+    public PaymentType type() { return PaymentType.CREDIT_CARD; }
+}
+
+record WalletPayload(String email) implements PaymentPayload {
+    WalletPayload {
+        Objects.requireNonNull(email, "email");
+    }
+    public PaymentType type() { return PaymentType.PAYPAL_WALLET; }
+}
+
+record BankAccountPayload(String accountNumber, String routingNumber) implements PaymentPayload {
+    BankAccountPayload {
+        Objects.requireNonNull(accountNumber, "accountNumber");
+        Objects.requireNonNull(routingNumber, "routingNumber");
+    }
+    public PaymentType type() { return PaymentType.BANK_TRANSFER; }
+}
+
+record CryptoPayload(String walletAddress) implements PaymentPayload {
+    CryptoPayload {
+        Objects.requireNonNull(walletAddress, "walletAddress");
+    }
+    public PaymentType type() { return PaymentType.CRYPTO; }
+}
+
+// Binary form for queued or persisted payloads: [byte type][fields], each field a varint length
+// followed by its UTF-8 bytes. ASCII fields (the usual case) are copied char by char, with no byte[].
+final class PayloadCodec {
+    private PayloadCodec() {
+    }
+    
+    public static byte[] encode(PaymentPayload payload) {
+        ByteBuffer out = ByteBuffer.allocate(encodedSize(payload));
+        encode(payload, out);
+        return out.array();
+    }
+    
+    public static void encode(PaymentPayload payload, ByteBuffer out) {
+        out.put((byte) payload.type().ordinal());
+        switch (payload) {
+            case CardPayload card -> {
+                writeString(out, card.cardNumber());
+                writeString(out, card.cvv());
+            }
+            case WalletPayload wallet -> writeString(out, wallet.email());
+            case BankAccountPayload account -> {
+                writeString(out, account.accountNumber());
+                writeString(out, account.routingNumber());
+            }
+            case CryptoPayload crypto -> writeString(out, crypto.walletAddress());
+        }
+    }
+    
+    public static int encodedSize(PaymentPayload payload) {
+        return 1 + switch (payload) {
+            case CardPayload card -> fieldSize(card.cardNumber()) + fieldSize(card.cvv());
+            case WalletPayload wallet -> fieldSize(wallet.email());
+            case BankAccountPayload account -> fieldSize(account.accountNumber()) + fieldSize(account.routingNumber());
+            case CryptoPayload crypto -> fieldSize(crypto.walletAddress());
+        };
+    }
+    
+    public static PaymentPayload decode(ByteBuffer in) {
+        int tag = in.get();
+        if (tag < 0 || tag >= PaymentType.values().length) {
+            throw new IllegalArgumentException("Unknown payload type " + tag);
+        }
+        return switch (PaymentType.values()[tag]) {
+            case CREDIT_CARD -> new CardPayload(readString(in), readString(in));
+            case PAYPAL_WALLET -> new WalletPayload(readString(in));
+            case BANK_TRANSFER -> new BankAccountPayload(readString(in), readString(in));
+            case CRYPTO -> new CryptoPayload(readString(in));
+        };
+    }
+    
+    private static int fieldSize(String value) {
+        int length = utf8Length(value);
+        return varintSize(length) + length;
+    }
+    
+    private static void writeString(ByteBuffer out, String value) {
+        int length = utf8Length(value);
+        writeVarint(out, length);
+        if (length == value.length()) {
+            for (int i = 0; i < length; i++) {
+                out.put((byte) value.charAt(i));
+            }
+        } else {
+            out.put(value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+    
+    private static String readString(ByteBuffer in) {
+        int length = readVarint(in);
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(in.position(), bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        in.position(in.position() + length);
+        return value;
+    }
+    
+    private static int utf8Length(String value) {
+        int length = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return value.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return length;
+    }
+    
+    private static void writeVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+    
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed length");
+    }
+    
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
+
+// ============================================
+// TRANSACTION IDS
+// ============================================
+
+// 64-bit IDs: [41 bits ms since 2024-01-01][10 bits node][12 bits sequence], lock-free and increasing
+// per generator. When 4096 IDs are taken in one millisecond the sequence carries into the next
+// millisecond instead of waiting, and a clock going backwards never produces a smaller ID.
+final class TransactionIdGenerator {
+    private static final long EPOCH_MILLIS = 1_704_067_200_000L;
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_NODE = (1L << NODE_BITS) - 1;
+    private static final char[] DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz".toCharArray();
+    private static final int MAX_DIGITS = 13; // a positive long in base 36
+    
+    private static final TransactionIdGenerator SHARED = new TransactionIdGenerator(Long.getLong("payment.node", 0));
+    
+    private final long nodeBits;
+    private final AtomicLong lastState = new AtomicLong(); // [ms since epoch][sequence], as last handed out
+    
+    public TransactionIdGenerator(long node) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("Node must be between 0 and " + MAX_NODE);
+        }
+        this.nodeBits = node << SEQUENCE_BITS;
+    }
+    
+    // Generator for this process, node taken from the payment.node system property
+    public static TransactionIdGenerator shared() {
+        return SHARED;
+    }
+    
+    public long next() {
+        long fresh = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        long last;
+        long state;
+        do {
+            last = lastState.get();
+            state = fresh > last ? fresh : last + 1;
+        } while (!lastState.compareAndSet(last, state));
+        return ((state >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)) | nodeBits | (state & ((1L << SEQUENCE_BITS) - 1));
+    }
+    
+    public String nextId(String prefix) {
+        return format(prefix, next());
+    }
+    
+    // prefix + base 36, built in a single buffer
+    public static String format(String prefix, long id) {
+        char[] chars = new char[prefix.length() + MAX_DIGITS];
+        int position = chars.length;
+        long rest = id;
+        do {
+            chars[--position] = DIGITS[(int) (rest % 36)];
+            rest /= 36;
+        } while (rest != 0);
+        int start = position - prefix.length();
+        prefix.getChars(0, prefix.length(), chars, start);
+        return new String(chars, start, chars.length - start);
+    }
+    
+    public static long parse(String transactionId) {
+        return Long.parseLong(transactionId.substring(transactionId.indexOf('_') + 1), 36);
+    }
+    
+    public static long timestampMillis(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+    
+    public static long node(long id) {
+        return (id >>> SEQUENCE_BITS) & MAX_NODE;
+    }
+}
 
 // ============================================
 // IMPLEMENTATION: Payment Gateways
 // ============================================
 
 interface PaymentGateway {
-    String process(double amount, String data);
+    String process(Money amount, PaymentPayload payload);
     boolean supports(String type);
-    default String refund(String txId, double amount) {
+    // One round trip for several payments; returns one transaction ID per payment, in order.
+    // Gateways without a batch endpoint fall back to one call per payment.
+    default List<String> processBatch(List<Money> amounts, List<PaymentPayload> payloads) {
+        List<String> txIds = new ArrayList<>(amounts.size());
+        for (int i = 0; i < amounts.size(); i++) {
+            txIds.add(process(amounts.get(i), payloads.get(i)));
+        }
+        return txIds;
+    }
+    default String refund(String txId, Money amount) {
         System.out.println("Refunding " + txId + ": $" + amount);
-        return "REFUND_" + System.currentTimeMillis();
+        return TransactionIdGenerator.shared().nextId("REFUND_");
+    }
+    // Whether txId is one of this gateway's transactions, so a router can send its refund back here
+    default boolean issued(String txId) {
+        return false;
     }
 }
 
 class StripeGateway implements PaymentGateway {
-    public String process(double amount, String data) {
+    public String process(Money amount, PaymentPayload payload) {
         System.out.println("Stripe processing $" + amount);
-        return "STR_" + System.currentTimeMillis();
+        return TransactionIdGenerator.shared().nextId("STR_");
     }
+    private static final Set<String> SUPPORTED = Set.of("CREDIT_CARD", "BANK_TRANSFER");
+    
     public boolean supports(String type) {
-        return Set.of("CREDIT_CARD", "BANK_TRANSFER").contains(type);
+        return SUPPORTED.contains(type);
+    }
+    
+    public boolean issued(String txId) {
+        return txId.startsWith("STR_");
     }
 }
 
 class PayPalGateway implements PaymentGateway {
-    public String process(double amount, String data) {
+    public String process(Money amount, PaymentPayload payload) {
         System.out.println("PayPal processing $" + amount);
-        return "PP_" + System.currentTimeMillis();
+        return TransactionIdGenerator.shared().nextId("PP_");
     }
+    private static final Set<String> SUPPORTED = Set.of("CREDIT_CARD", "PAYPAL_WALLET", "CRYPTO");
+    
     public boolean supports(String type) {
-        return Set.of("CREDIT_CARD", "PAYPAL_WALLET", "CRYPTO").contains(type);
+        return SUPPORTED.contains(type);
+    }
+    
+    public boolean issued(String txId) {
+        return txId.startsWith("PP_");
     }
 }
 
+// ============================================
+// ROUTING: Gateway capabilities
+// ============================================
+
+enum PaymentType { CREDIT_CARD, PAYPAL_WALLET, BANK_TRANSFER, CRYPTO }
 
+// Thrown by a gateway that cannot take payments right now; the router then tries the next one
+class GatewayUnavailableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    
+    public GatewayUnavailableException(String message) {
+        super(message);
+    }
+}
+
+// Capability table built once from the registered gateways: for each payment type, a bitmask of the
+// gateways that support it (bit i = i-th gateway, in registration order). Routing a payment is a mask
+// intersection with the currently available gateways, with no allocation.
+// Each gateway has a circuit breaker and is available while it is closed; an open one only gets the
+// breaker's probe. A payment goes to the first capable gateway let through, failing over to the next
+// one when a gateway is unavailable (a batch fails over as a whole). Refunds go back to the gateway
+// that issued the transaction. With hedging on, if the first attempt is still running past that
+// gateway's latency percentile, a second attempt goes to the next capable gateway and the first success
+// wins; a charge made by the losing attempt is refunded.
+final class GatewayRouter implements AutoCloseable {
+    private static final int REFUND_ATTEMPTS = 3;
+    private static final long REFUND_BACKOFF_MILLIS = 100;
+    
+    // A hedged charge whose refund kept failing: the customer was charged twice until it is refunded
+    record FailedRefund(PaymentGateway gateway, String txId, Money amount, RuntimeException cause) { }
+    
+    private final PaymentGateway[] gateways;
+    private final CircuitBreaker[] breakers;
+    private final long[] capableByType = new long[PaymentType.values().length];
+    private final PaymentGateway[] routes = new PaymentGateway[PaymentType.values().length];
+    private final AtomicLong available;
+    private final ExecutorService hedgeCalls;   // null = no hedging
+    private final double hedgePercentile;
+    private final long defaultHedgeDelayNanos;  // until the gateway has enough history
+    private final ConcurrentLinkedQueue<FailedRefund> failedRefunds = new ConcurrentLinkedQueue<>();
+    
+    public GatewayRouter(List<PaymentGateway> gateways) {
+        this(gateways, 0, 0);
+    }
+    
+    public GatewayRouter(List<PaymentGateway> gateways, double hedgePercentile, long defaultHedgeDelayMillis) {
+        if (gateways.isEmpty() || gateways.size() > Long.SIZE) {
+            throw new IllegalArgumentException("Between 1 and 64 gateways can be routed");
+        }
+        this.gateways = gateways.toArray(new PaymentGateway[0]);
+        this.breakers = new CircuitBreaker[this.gateways.length];
+        for (int i = 0; i < breakers.length; i++) {
+            breakers[i] = CircuitBreaker.withDefaults();
+        }
+        for (PaymentType type : PaymentType.values()) {
+            for (int i = 0; i < this.gateways.length; i++) {
+                if (this.gateways[i].supports(type.name())) {
+                    capableByType[type.ordinal()] |= 1L << i;
+                }
+            }
+            routes[type.ordinal()] = new RoutedGateway(type);
+        }
+        this.available = new AtomicLong(gateways.size() == Long.SIZE ? -1L : (1L << gateways.size()) - 1);
+        this.hedgeCalls = hedgePercentile > 0 ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        this.hedgePercentile = hedgePercentile;
+        this.defaultHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(defaultHedgeDelayMillis);
+    }
+    
+    // A gateway view bound to one payment type, for PaymentMethod
+    public PaymentGateway forType(PaymentType type) {
+        return routes[type.ordinal()];
+    }
+    
+    /**
+     * The concrete gateway the next payment of this type goes to: the first capable one whose breaker
+     * is closed, or the first capable one when none is. Per-gateway limits and batches are keyed on it.
+     */
+    public PaymentGateway select(PaymentType type) {
+        long capable = capableByType[type.ordinal()];
+        if (capable == 0) {
+            throw new UnsupportedOperationException("No gateway supports " + type);
+        }
+        long candidates = capable & available.get();
+        return gateways[Long.numberOfTrailingZeros(candidates != 0 ? candidates : capable)];
+    }
+    
+    public EnumSet<PaymentType> capabilitiesOf(PaymentGateway gateway) {
+        long bit = 1L << indexOf(gateway);
+        EnumSet<PaymentType> capabilities = EnumSet.noneOf(PaymentType.class);
+        for (PaymentType type : PaymentType.values()) {
+            if ((capableByType[type.ordinal()] & bit) != 0) {
+                capabilities.add(type);
+            }
+        }
+        return capabilities;
+    }
+    
+    public CircuitBreaker getBreaker(PaymentGateway gateway) {
+        return breakers[indexOf(gateway)];
+    }
+    
+    public List<FailedRefund> getFailedRefunds() {
+        return List.copyOf(failedRefunds);
+    }
+    
+    // Opens the gateway's breaker by hand; it is probed again once the open period is over
+    public void markUnavailable(PaymentGateway gateway) {
+        int index = indexOf(gateway);
+        breakers[index].forceOpen();
+        clearAvailable(1L << index);
+    }
+    
+    public void markAvailable(PaymentGateway gateway) {
+        int index = indexOf(gateway);
+        breakers[index].reset();
+        setAvailable(1L << index);
+    }
+    
+    public String process(PaymentType type, Money amount, PaymentPayload payload) {
+        long capable = capableByType[type.ordinal()];
+        if (capable == 0) {
+            throw new UnsupportedOperationException("No gateway supports " + type);
+        }
+        GatewayUnavailableException lastFailure = null;
+        long remaining = capable;
+        while (remaining != 0) {
+            int index = Long.numberOfTrailingZeros(remaining);
+            remaining &= ~(1L << index);
+            CircuitBreaker.Permit permit = acquire(index);
+            if (permit == CircuitBreaker.Permit.DENIED) {
+                continue;
+            }
+            try {
+                if (hedgeCalls == null) {
+                    return call(index, permit, amount, payload);
+                }
+                CompletableFuture<String> first = callAsync(index, permit, amount, payload);
+                if (completesWithin(first, hedgeDelayNanos(index))) {
+                    return join(first);
+                }
+                while (remaining != 0) {
+                    int hedge = Long.numberOfTrailingZeros(remaining);
+                    remaining &= ~(1L << hedge);
+                    CircuitBreaker.Permit hedgePermit = acquire(hedge);
+                    if (hedgePermit != CircuitBreaker.Permit.DENIED) {
+                        return join(firstSuccess(first, gateways[index],
+                            callAsync(hedge, hedgePermit, amount, payload), gateways[hedge], amount));
+                    }
+                }
+                return join(first);
+            } catch (GatewayUnavailableException e) {
+                lastFailure = e;
+            }
+        }
+        throw lastFailure != null ? lastFailure : new GatewayUnavailableException("Every gateway for " + type + " is open");
+    }
+    
+    public List<String> processBatch(PaymentType type, List<Money> amounts, List<PaymentPayload> payloads) {
+        long capable = capableByType[type.ordinal()];
+        if (capable == 0) {
+            throw new UnsupportedOperationException("No gateway supports " + type);
+        }
+        GatewayUnavailableException lastFailure = null;
+        long remaining = capable;
+        while (remaining != 0) {
+            int index = Long.numberOfTrailingZeros(remaining);
+            remaining &= ~(1L << index);
+            CircuitBreaker.Permit permit = acquire(index);
+            if (permit == CircuitBreaker.Permit.DENIED) {
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                List<String> txIds = gateways[index].processBatch(amounts, payloads);
+                record(index, permit, start, null);
+                return txIds;
+            } catch (GatewayUnavailableException e) {
+                record(index, permit, start, e);
+                lastFailure = e;
+            } catch (RuntimeException e) {
+                record(index, permit, start, e);
+                throw e;
+            }
+        }
+        throw lastFailure != null ? lastFailure : new GatewayUnavailableException("Every gateway for " + type + " is open");
+    }
+    
+    public String refund(String txId, Money amount) {
+        for (PaymentGateway gateway : gateways) {
+            if (gateway.issued(txId)) {
+                return gateway.refund(txId, amount);
+            }
+        }
+        throw new IllegalArgumentException("No registered gateway issued transaction " + txId);
+    }
+    
+    @Override
+    public void close() {
+        if (hedgeCalls != null) {
+            hedgeCalls.close();
+        }
+    }
+    
+    private int indexOf(PaymentGateway gateway) {
+        for (int i = 0; i < gateways.length; i++) {
+            if (gateways[i] == gateway) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Gateway is not registered");
+    }
+    
+    // An available gateway's breaker is closed; any other is asked whether it is due for a probe
+    private CircuitBreaker.Permit acquire(int index) {
+        return (available.get() & (1L << index)) != 0 ? CircuitBreaker.Permit.CALL : breakers[index].tryAcquire();
+    }
+    
+    private String call(int index, CircuitBreaker.Permit permit, Money amount, PaymentPayload payload) {
+        long start = System.nanoTime();
+        try {
+            String txId = gateways[index].process(amount, payload);
+            record(index, permit, start, null);
+            return txId;
+        } catch (RuntimeException e) {
+            record(index, permit, start, e);
+            throw e;
+        }
+    }
+    
+    private void record(int index, CircuitBreaker.Permit permit, long startNanos, RuntimeException failure) {
+        CircuitBreaker breaker = breakers[index];
+        // Only unavailability counts against the gateway; a declined payment is a normal answer
+        breaker.record(permit, System.nanoTime() - startNanos, failure instanceof GatewayUnavailableException);
+        if (breaker.getState() == CircuitBreaker.State.CLOSED) {
+            setAvailable(1L << index);
+        } else {
+            clearAvailable(1L << index);
+        }
+    }
+    
+    private CompletableFuture<String> callAsync(int index, CircuitBreaker.Permit permit, Money amount, PaymentPayload payload) {
+        return CompletableFuture.supplyAsync(() -> call(index, permit, amount, payload), hedgeCalls);
+    }
+    
+    private long hedgeDelayNanos(int index) {
+        SlidingWindowStats stats = breakers[index].getStats();
+        return stats.calls() < 20 ? defaultHedgeDelayNanos : stats.percentileNanos(hedgePercentile);
+    }
+    
+    private static boolean completesWithin(CompletableFuture<String> future, long nanos) {
+        try {
+            future.get(nanos, TimeUnit.NANOSECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+    
+    private static String join(CompletableFuture<String> outcome) {
+        try {
+            return outcome.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+    
+    private CompletableFuture<String> firstSuccess(CompletableFuture<String> first, PaymentGateway firstGateway,
+                                                   CompletableFuture<String> second, PaymentGateway secondGateway,
+                                                   Money amount) {
+        CompletableFuture<String> winner = new CompletableFuture<>();
+        AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+        BiConsumer<PaymentGateway, CompletableFuture<String>> race = (gateway, attempt) ->
+            attempt.whenComplete((txId, error) -> {
+                if (error == null) {
+                    if (!winner.complete(txId)) {
+                        refundLoser(gateway, txId, amount);
+                    }
+                    return;
+                }
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (!firstFailure.compareAndSet(null, cause)) {
+                    // Both failed: a decline is the real answer, the other attempt's outage must not hide it
+                    winner.completeExceptionally(cause instanceof GatewayUnavailableException ? firstFailure.get() : cause);
+                }
+            });
+        race.accept(firstGateway, first);
+        race.accept(secondGateway, second);
+        return winner;
+    }
+    
+    // Refunds the charge of the attempt that lost the race, with retries. Runs on that attempt's thread,
+    // so close() waits for it; a refund that keeps failing is kept in failedRefunds for follow-up.
+    private void refundLoser(PaymentGateway gateway, String txId, Money amount) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                gateway.refund(txId, amount);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt == REFUND_ATTEMPTS) {
+                    failedRefunds.add(new FailedRefund(gateway, txId, amount, e));
+                    System.out.println("Refund of hedged charge " + txId + " failed after " + attempt + " attempts: "
+                        + e.getMessage());
+                    return;
+                }
+            }
+            try {
+                Thread.sleep(REFUND_BACKOFF_MILLIS << (attempt - 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failedRefunds.add(new FailedRefund(gateway, txId, amount, new IllegalStateException("Interrupted", e)));
+                return;
+            }
+        }
+    }
+    
+    private void setAvailable(long bit) {
+        long current;
+        while (((current = available.get()) & bit) == 0 && !available.compareAndSet(current, current | bit)) {
+            // retry until the bit is set
+        }
+    }
+    
+    private void clearAvailable(long bit) {
+        long current;
+        while (((current = available.get()) & bit) != 0 && !available.compareAndSet(current, current & ~bit)) {
+            // retry until the bit is cleared
+        }
+    }
+    
+    private final class RoutedGateway implements PaymentGateway {
+        private final PaymentType type;
+        
+        RoutedGateway(PaymentType type) {
+            this.type = type;
+        }
+        
+        public String process(Money amount, PaymentPayload payload) {
+            return GatewayRouter.this.process(type, amount, payload);
+        }
+        
+        public List<String> processBatch(List<Money> amounts, List<PaymentPayload> payloads) {
+            return GatewayRouter.this.processBatch(type, amounts, payloads);
+        }
+        
+        public String refund(String txId, Money amount) {
+            return GatewayRouter.this.refund(txId, amount);
+        }
+        
+        public boolean issued(String txId) {
+            for (PaymentGateway gateway : gateways) {
+                if (gateway.issued(txId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        public boolean supports(String requested) {
+            return capableByType[type.ordinal()] != 0 && type.name().equals(requested);
+        }
+    }
+}
+
+// ============================================
+// RESILIENCE: Circuit breakers
+// ============================================
+
+// Calls and bad calls over the last N time slots, plus a latency histogram with power-of-two
+// buckets (bucket i holds calls under 2^i microseconds). Counters are updated with atomics only;
+// increments racing with a slot being recycled may be lost, which only blurs the window edge.
+final class SlidingWindowStats {
+    private static final int CALLS = 0;
+    private static final int BAD_CALLS = 1;
+    private static final int HISTOGRAM = 2;
+    private static final int HISTOGRAM_BUCKETS = 32;
+    private static final int STRIDE = HISTOGRAM + HISTOGRAM_BUCKETS;
+    
+    private final long slotMillis;
+    private final int slots;
+    private final AtomicLongArray slotEpochs;
+    private final AtomicLongArray counters;
+    
+    public SlidingWindowStats(long windowMillis, int slots) {
+        this.slotMillis = Math.max(1, windowMillis / slots);
+        this.slots = slots;
+        this.slotEpochs = new AtomicLongArray(slots);
+        this.counters = new AtomicLongArray(slots * STRIDE);
+        reset();
+    }
+    
+    public void record(long latencyNanos, boolean bad) {
+        long epoch = System.currentTimeMillis() / slotMillis;
+        int slot = (int) (epoch % slots);
+        long seen = slotEpochs.get(slot);
+        if (seen != epoch && slotEpochs.compareAndSet(slot, seen, epoch)) {
+            for (int i = 0; i < STRIDE; i++) {
+                counters.set(slot * STRIDE + i, 0);
+            }
+        }
+        counters.incrementAndGet(slot * STRIDE + CALLS);
+        if (bad) {
+            counters.incrementAndGet(slot * STRIDE + BAD_CALLS);
+        }
+        counters.incrementAndGet(slot * STRIDE + HISTOGRAM + bucketOf(latencyNanos));
+    }
+    
+    public long calls() {
+        return sum(CALLS);
+    }
+    
+    public double badCallRate() {
+        long calls = sum(CALLS);
+        return calls == 0 ? 0 : (double) sum(BAD_CALLS) / calls;
+    }
+    
+    // Upper bound of the histogram bucket holding the given percentile (0 < percentile < 1)
+    public long percentileNanos(double percentile) {
+        long calls = sum(CALLS);
+        long rank = (long) Math.ceil(calls * percentile);
+        long seen = 0;
+        for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+            seen += sum(HISTOGRAM + bucket);
+            if (seen >= rank) {
+                return (1L << bucket) * 1_000;
+            }
+        }
+        return (1L << (HISTOGRAM_BUCKETS - 1)) * 1_000;
+    }
+    
+    public void reset() {
+        for (int slot = 0; slot < slots; slot++) {
+            slotEpochs.set(slot, -1);
+        }
+    }
+    
+    private long sum(int field) {
+        long oldestEpoch = System.currentTimeMillis() / slotMillis - slots + 1;
+        long total = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            if (slotEpochs.get(slot) >= oldestEpoch) {
+                total += counters.get(slot * STRIDE + field);
+            }
+        }
+        return total;
+    }
+    
+    private static int bucketOf(long latencyNanos) {
+        long micros = Math.max(1, latencyNanos / 1_000);
+        return Math.min(HISTOGRAM_BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(micros));
+    }
+}
+
+// Opens when, over at least minCalls in the window, the share of failed or slow calls reaches the
+// threshold. After openMillis a single probe is let through: success closes it, failure reopens it.
+// Calls let through while closed are still recorded after it opens, but only the probe changes its state.
+class CircuitBreaker {
+    enum State { CLOSED, OPEN, HALF_OPEN }
+    
+    enum Permit { DENIED, CALL, PROBE }
+    
+    private final SlidingWindowStats stats;
+    private final double badCallRateThreshold;
+    private final long slowCallNanos;
+    private final int minCalls;
+    private final long openMillis;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private volatile long openedAtMillis;
+    
+    public CircuitBreaker(double badCallRateThreshold, long slowCallMillis, int minCalls, long openMillis) {
+        this.stats = new SlidingWindowStats(10_000, 10);
+        this.badCallRateThreshold = badCallRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.minCalls = minCalls;
+        this.openMillis = openMillis;
+    }
+    
+    public static CircuitBreaker withDefaults() {
+        return new CircuitBreaker(0.5, 1_000, 20, 5_000);
+    }
+    
+    public Permit tryAcquire() {
+        switch (state.get()) {
+            case CLOSED:
+                return Permit.CALL;
+            case OPEN:
+                return System.currentTimeMillis() - openedAtMillis >= openMillis
+                    && state.compareAndSet(State.OPEN, State.HALF_OPEN) ? Permit.PROBE : Permit.DENIED;
+            default:
+                return Permit.DENIED;
+        }
+    }
+    
+    /**
+     * @param permit what tryAcquire returned for this call
+     */
+    public void record(Permit permit, long latencyNanos, boolean failed) {
+        boolean bad = failed || latencyNanos > slowCallNanos;
+        stats.record(latencyNanos, bad);
+        if (permit == Permit.PROBE) {
+            if (bad) {
+                openedAtMillis = System.currentTimeMillis();
+                state.compareAndSet(State.HALF_OPEN, State.OPEN);
+            } else {
+                stats.reset();
+                state.compareAndSet(State.HALF_OPEN, State.CLOSED);
+            }
+        } else if (bad && state.get() == State.CLOSED && stats.calls() >= minCalls
+                   && stats.badCallRate() >= badCallRateThreshold) {
+            openedAtMillis = System.currentTimeMillis();
+            state.compareAndSet(State.CLOSED, State.OPEN);
+        }
+    }
+    
+    public void forceOpen() {
+        openedAtMillis = System.currentTimeMillis();
+        state.set(State.OPEN);
+    }
+    
+    public void reset() {
+        stats.reset();
+        state.set(State.CLOSED);
+    }
+    
+    public State getState() { return state.get(); }
+    public SlidingWindowStats getStats() { return stats; }
+}
 
 // ============================================
 // ABSTRACTION: Payment Methods
 // ============================================
 
-abstract class PaymentMethod {
+abstract class PaymentMethod<P extends PaymentPayload> {
     protected PaymentGateway gateway;
     protected String type;
+    private GatewayRouter router;       // null when bound to one gateway
+    private PaymentType routedType;
     
     public PaymentMethod(PaymentGateway gateway, String type) {
         this.gateway = gateway;
         this.type = type;
     }
     
-    public String execute(double amount, Map<String, String> data) {
-        if (amount <= 0) throw new IllegalArgumentException("Invalid amount");
+    public PaymentMethod(GatewayRouter router, PaymentType type) {
+        this(router.forType(type), type.name());
+        this.router = router;
+        this.routedType = type;
+    }
+    
+    public String execute(Money amount, P payload) {
+        return gateway.process(amount, prepare(amount, payload));
+    }
+    
+    // Validates the payment without calling the gateway; the payload itself goes through unchanged
+    public P prepare(Money amount, P payload) {
+        if (!amount.isPositive()) throw new IllegalArgumentException("Invalid amount");
         if (!gateway.supports(type)) throw new UnsupportedOperationException("Gateway doesn't support " + type);
         
         System.out.println("Processing " + type + " payment...");
-        return gateway.process(amount, prepareData(data));
+        verify(payload);
+        return payload;
+    }
+    
+    protected void verify(P payload) {
     }
     
-    protected abstract String prepareData(Map<String, String> data);
     public String getType() { return type; }
+    public PaymentGateway getGateway() { return gateway; }
+    
+    // The concrete gateway this payment goes to now (the router's pick for routed methods)
+    public PaymentGateway selectGateway() {
+        return router == null ? gateway : router.select(routedType);
+    }
 }
 
-class CreditCardPayment extends PaymentMethod {
+class CreditCardPayment extends PaymentMethod<CardPayload> {
     public CreditCardPayment(PaymentGateway gateway) {
         super(gateway, "CREDIT_CARD");
     }
-    protected String prepareData(Map<String, String> data) {
-        return data.get("cardNumber") + "|" + data.get("cvv");
+    public CreditCardPayment(GatewayRouter router) {
+        super(router, PaymentType.CREDIT_CARD);
     }
 }
 
-class PayPalWalletPayment extends PaymentMethod {
+class PayPalWalletPayment extends PaymentMethod<WalletPayload> {
     public PayPalWalletPayment(PaymentGateway gateway) {
         super(gateway, "PAYPAL_WALLET");
     }
-    protected String prepareData(Map<String, String> data) {
+    public PayPalWalletPayment(GatewayRouter router) {
+        super(router, PaymentType.PAYPAL_WALLET);
+    }
+    protected void verify(WalletPayload payload) {
         System.out.println("Authenticating PayPal wallet...");
-        return data.get("email");
     }
 }
 
-class BankTransferPayment extends PaymentMethod {
+class BankTransferPayment extends PaymentMethod<BankAccountPayload> {
     public BankTransferPayment(PaymentGateway gateway) {
         super(gateway, "BANK_TRANSFER");
     }
-    protected String prepareData(Map<String, String> data) {
+    public BankTransferPayment(GatewayRouter router) {
+        super(router, PaymentType.BANK_TRANSFER);
+    }
+    protected void verify(BankAccountPayload payload) {
         System.out.println("Verifying bank account... (3-5 business days)");
-        return data.get("accountNumber") + "|" + data.get("routingNumber");
     }
 }
 
-class CryptoPayment extends PaymentMethod {
+class CryptoPayment extends PaymentMethod<CryptoPayload> {
     public CryptoPayment(PaymentGateway gateway) {
         super(gateway, "CRYPTO");
     }
-    protected String prepareData(Map<String, String> data) {
-        return data.get("walletAddress");
+    public CryptoPayment(GatewayRouter router) {
+        super(router, PaymentType.CRYPTO);
     }
 }
 
@@ -113,18 +985,408 @@ class PaymentProcessor {
         this.logger = logger;
     }
     
-    public String process(PaymentMethod method, double amount, Map<String, String> data) {
-        String txId = method.execute(amount, data);
+    public <P extends PaymentPayload> String process(PaymentMethod<P> method, Money amount, P payload) {
+        String txId = method.execute(amount, payload);
         logger.run();
         notifier.run();
         return txId;
     }
     
-    public String refund(PaymentGateway gateway, String txId, double amount) {
+    public String refund(PaymentGateway gateway, String txId, Money amount) {
         return gateway.refund(txId, amount);
     }
 }
 
+// Results of keyed requests, kept for a time-to-live and at most maxEntries.
+// The first request for a key runs the action; concurrent and later duplicates get its result
+// (waiting for it while it runs). A failed action is forgotten so the client can retry it.
+// Entries are evicted oldest first, which with a single TTL is also the expiry order. An entry whose
+// action is still running is never evicted or replaced: eviction moves it to the back and goes on.
+// Only a digest of each request is kept, never the payment details themselves.
+class IdempotencyCache {
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();  // approximate size of insertionOrder
+    
+    public IdempotencyCache(long ttlMillis, int maxEntries) {
+        if (ttlMillis <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("TTL and capacity must be positive");
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxEntries = maxEntries;
+    }
+    
+    /**
+     * @param requestDigest digest of the request behind the key; reusing a key for another request is refused
+     */
+    public String execute(String key, byte[] requestDigest, Supplier<String> action) {
+        long now = System.nanoTime();
+        evict(now);
+        Entry entry = new Entry(key, requestDigest, now);
+        while (true) {
+            Entry existing = entries.putIfAbsent(key, entry);
+            if (existing == null) {
+                enqueue(entry);
+                return run(entry, action);
+            }
+            if (now - existing.createdNanos > ttlNanos && existing.result.isDone()) {
+                if (entries.replace(key, existing, entry)) {
+                    enqueue(entry);
+                    return run(entry, action);
+                }
+                continue;
+            }
+            if (!MessageDigest.isEqual(existing.requestDigest, requestDigest)) {
+                throw new IllegalStateException("Idempotency key " + key + " was already used for a different request");
+            }
+            try {
+                return existing.result.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+    }
+    
+    public int size() {
+        return entries.size();
+    }
+    
+    private String run(Entry entry, Supplier<String> action) {
+        try {
+            String result = action.get();
+            entry.result.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            entries.remove(entry.key, entry);
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+    
+    private void enqueue(Entry entry) {
+        insertionOrder.add(entry);
+        // Failed and replaced entries stay queued until they reach the head; when they pile up behind
+        // a live head, sweep them so the queue stays within twice the capacity
+        if (queued.incrementAndGet() > 2 * maxEntries) {
+            insertionOrder.removeIf(queuedEntry -> entries.get(queuedEntry.key) != queuedEntry);
+            queued.set(insertionOrder.size());
+        }
+    }
+    
+    private void evict(long now) {
+        Entry oldest;
+        Entry firstRequeued = null;
+        while ((oldest = insertionOrder.peek()) != null && oldest != firstRequeued) {
+            boolean stale = entries.get(oldest.key) != oldest;
+            if (!stale && now - oldest.createdNanos <= ttlNanos && entries.size() <= maxEntries) {
+                return;
+            }
+            if (!insertionOrder.remove(oldest)) {
+                continue;
+            }
+            if (!stale && !oldest.result.isDone()) {
+                // Still running: keep it, behind the others, and look at the next one
+                insertionOrder.add(oldest);
+                if (firstRequeued == null) {
+                    firstRequeued = oldest;
+                }
+                continue;
+            }
+            queued.decrementAndGet();
+            entries.remove(oldest.key, oldest);
+        }
+    }
+    
+    private static final class Entry {
+        final String key;
+        final byte[] requestDigest;
+        final long createdNanos;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        
+        Entry(String key, byte[] requestDigest, long createdNanos) {
+            this.key = key;
+            this.requestDigest = requestDigest;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
+
+// PaymentProcessor behind client-supplied idempotency keys: a retried payment or refund returns
+// the original transaction ID instead of charging or refunding again.
+class IdempotentPaymentProcessor {
+    private static final String DIGEST_ALGORITHM = "HmacSHA256";
+    
+    private final PaymentProcessor processor;
+    private final IdempotencyCache payments;
+    private final IdempotencyCache refunds;
+    private final SecretKeySpec digestKey;
+    
+    public IdempotentPaymentProcessor(PaymentProcessor processor, long ttlMillis, int maxEntries) {
+        this.processor = processor;
+        this.payments = new IdempotencyCache(ttlMillis, maxEntries);
+        this.refunds = new IdempotencyCache(ttlMillis, maxEntries);
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.digestKey = new SecretKeySpec(secret, DIGEST_ALGORITHM);
+    }
+    
+    public <P extends PaymentPayload> String process(String idempotencyKey, PaymentMethod<P> method, Money amount, P payload) {
+        byte[] request = digest(method.getType(), amount, PayloadCodec.encode(payload));
+        return payments.execute(idempotencyKey, request, () -> processor.process(method, amount, payload));
+    }
+    
+    public String refund(String idempotencyKey, PaymentGateway gateway, String txId, Money amount) {
+        byte[] request = digest("REFUND", amount, txId.getBytes(StandardCharsets.UTF_8));
+        return refunds.execute(idempotencyKey, request, () -> processor.refund(gateway, txId, amount));
+    }
+    
+    // What a key is bound to: a retry must repeat these fields exactly. Keyed with a per-process secret,
+    // so card numbers cannot be recovered from the cache by trying them all.
+    private byte[] digest(String kind, Money amount, byte[] details) {
+        try {
+            Mac mac = Mac.getInstance(DIGEST_ALGORITHM);
+            mac.init(digestKey);
+            mac.update(kind.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(ByteBuffer.allocate(Long.BYTES).putLong(0, amount.getCents()).array());
+            return mac.doFinal(details);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is not available", e);
+        }
+    }
+}
+
+// Runs gateway calls on virtual threads, at most N at a time per gateway.
+// The caller's future completes with the transaction ID as soon as the gateway answers;
+// logging and notification run afterwards on a separate thread, off the critical path.
+class PaymentEngine implements AutoCloseable {
+    private final Runnable notifier;
+    private final Runnable logger;
+    private final int defaultGatewayLimit;
+    private final Map<PaymentGateway, Semaphore> gatewayLimits = new ConcurrentHashMap<>();
+    private final ExecutorService gatewayCalls = Executors.newVirtualThreadPerTaskExecutor();
+    private final ExecutorService sideEffects = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "payment-side-effects");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    public PaymentEngine(Runnable notifier, Runnable logger, int defaultGatewayLimit) {
+        this.notifier = notifier;
+        this.logger = logger;
+        this.defaultGatewayLimit = defaultGatewayLimit;
+    }
+    
+    public PaymentEngine withGatewayLimit(PaymentGateway gateway, int maxConcurrentCalls) {
+        gatewayLimits.put(gateway, new Semaphore(maxConcurrentCalls));
+        return this;
+    }
+    
+    public <P extends PaymentPayload> CompletableFuture<String> submit(PaymentMethod<P> method, Money amount, P payload) {
+        Semaphore limit = gatewayLimits.computeIfAbsent(method.selectGateway(), gateway -> new Semaphore(defaultGatewayLimit));
+        CompletableFuture<String> result = new CompletableFuture<>();
+        gatewayCalls.execute(() -> {
+            try {
+                limit.acquire();
+                try {
+                    result.complete(method.execute(amount, payload));
+                } finally {
+                    limit.release();
+                }
+                sideEffects.execute(this::runSideEffects);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.completeExceptionally(e);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+    
+    // Waits for every submitted payment, then for their logging and notifications
+    @Override
+    public void close() {
+        gatewayCalls.close();
+        sideEffects.close();
+    }
+    
+    private void runSideEffects() {
+        try {
+            logger.run();
+            notifier.run();
+        } catch (RuntimeException e) {
+            System.out.println("Post-payment task failed: " + e.getMessage());
+        }
+    }
+}
+
+// Settlement stage in front of the gateways: payments are collected per gateway and sent together
+// through processBatch once N are waiting or the oldest has waited T milliseconds.
+// Each caller gets a future of its own transaction ID.
+class SettlementStage implements AutoCloseable {
+    private final Runnable notifier;
+    private final Runnable logger;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final Map<PaymentGateway, GatewayBatcher> batchers = new ConcurrentHashMap<>();
+    // Submits share the read lock; close takes the write lock, so no payment can be queued once it stops
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean running = true;
+    
+    public SettlementStage(Runnable notifier, Runnable logger, int maxBatchSize, long maxWaitMillis) {
+        if (maxBatchSize <= 0 || maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Batch size must be positive and wait non-negative");
+        }
+        this.notifier = notifier;
+        this.logger = logger;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+    
+    public <P extends PaymentPayload> CompletableFuture<String> submit(PaymentMethod<P> method, Money amount, P payload) {
+        PendingPayment payment = new PendingPayment(amount, method.prepare(amount, payload));
+        closeLock.readLock().lock();
+        try {
+            if (!running) {
+                throw new IllegalStateException("Settlement stage is closed");
+            }
+            batchers.computeIfAbsent(method.selectGateway(), GatewayBatcher::new).add(payment);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return payment.result;
+    }
+    
+    // Settles everything already submitted, then stops the batchers
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        for (GatewayBatcher batcher : batchers.values()) {
+            batcher.join();
+        }
+    }
+    
+    private static final class PendingPayment {
+        final Money amount;
+        final PaymentPayload payload;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        
+        PendingPayment(Money amount, PaymentPayload payload) {
+            this.amount = amount;
+            this.payload = payload;
+        }
+    }
+    
+    private final class GatewayBatcher {
+        private final PaymentGateway gateway;
+        private final LinkedBlockingQueue<PendingPayment> queue = new LinkedBlockingQueue<>();
+        private final Thread thread;
+        
+        GatewayBatcher(PaymentGateway gateway) {
+            this.gateway = gateway;
+            this.thread = new Thread(this::run, "settlement-" + gateway.getClass().getSimpleName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        void add(PendingPayment payment) {
+            queue.add(payment);
+        }
+        
+        void join() {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        private void run() {
+            List<PendingPayment> batch = new ArrayList<>(maxBatchSize);
+            List<Money> amounts = new ArrayList<>(maxBatchSize);
+            List<PaymentPayload> payloads = new ArrayList<>(maxBatchSize);
+            while (running || !queue.isEmpty()) {
+                try {
+                    PendingPayment first = queue.poll(50, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    long deadline = System.nanoTime() + maxWaitNanos;
+                    while (batch.size() < maxBatchSize) {
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                        long remaining = deadline - System.nanoTime();
+                        if (batch.size() >= maxBatchSize || remaining <= 0) {
+                            break;
+                        }
+                        PendingPayment next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next != null) {
+                            batch.add(next);
+                        }
+                    }
+                    settle(batch, amounts, payloads);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    queue.drainTo(batch);
+                    for (PendingPayment payment : batch) {
+                        payment.result.completeExceptionally(e);
+                    }
+                    return;
+                } finally {
+                    batch.clear();
+                    amounts.clear();
+                    payloads.clear();
+                }
+            }
+        }
+        
+        private void settle(List<PendingPayment> batch, List<Money> amounts, List<PaymentPayload> payloads) {
+            for (PendingPayment payment : batch) {
+                amounts.add(payment.amount);
+                payloads.add(payment.payload);
+            }
+            try {
+                List<String> txIds = gateway.processBatch(amounts, payloads);
+                if (txIds.size() != batch.size()) {
+                    throw new IllegalStateException("Gateway returned " + txIds.size()
+                        + " transaction IDs for " + batch.size() + " payments");
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).result.complete(txIds.get(i));
+                }
+            } catch (RuntimeException e) {
+                for (PendingPayment payment : batch) {
+                    payment.result.completeExceptionally(e);
+                }
+                return;
+            } finally {
+                // Even if an Error escapes, no caller is left waiting on a payment of this batch
+                for (PendingPayment payment : batch) {
+                    if (!payment.result.isDone()) {
+                        payment.result.completeExceptionally(new IllegalStateException("Batch settlement aborted"));
+                    }
+                }
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    logger.run();
+                    notifier.run();
+                } catch (RuntimeException e) {
+                    System.out.println("Post-payment task failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
+
 // ============================================
 // MAIN
 // ============================================
@@ -143,8 +1405,8 @@ public class PaymentSystemDemo {
         System.out.println("=== Test 1: Credit Card via Stripe ===");
         processor.process(
             new CreditCardPayment(stripe), 
-            99.99, 
-            Map.of("cardNumber", "4111111111111111", "cvv", "123", "email", "customer@example.com")
+            Money.ofCents(9999), 
+            new CardPayload("4111111111111111", "123")
         );
         
 
@@ -152,28 +1414,468 @@ public class PaymentSystemDemo {
         System.out.println("=== Test 2: PayPal Wallet via PayPal===");
         processor.process(
             new PayPalWalletPayment(paypal), 
-            75.50, 
-            Map.of("email", "wallet@user.com")
+            Money.ofCents(7550), 
+            new WalletPayload("wallet@user.com")
         );
         
         // Test 3: Bank Transfer via Stripe
         System.out.println("=== Test 3: Bank Transfer via Stripe ===");
         processor.process(
             new BankTransferPayment(stripe), 
-            500.00, 
-            Map.of("accountNumber", "123456789", "routingNumber", "987654321", "email", "business@company.com")
+            Money.ofCents(50000), 
+            new BankAccountPayload("123456789", "987654321")
         );
         
         // Test 4: Crypto via PayPal
         System.out.println("=== Test 4: Crypto via PayPal ===");
         processor.process(
             new CryptoPayment(paypal), 
-            250.00, 
-            Map.of("walletAddress", "0x742d35Cc6634C0532925a3b844Bc9e7595f0bEb", "email", "crypto@fan.com")
+            Money.ofCents(25000), 
+            new CryptoPayload("0x742d35Cc6634C0532925a3b844Bc9e7595f0bEb")
         );
         
         // Test 5: Refund
         System.out.println("=== Test 5: Refund ===");
-        processor.refund(stripe, "STR_123456", 99.99);
+        processor.refund(stripe, "STR_123456", Money.ofCents(9999));
+        
+        // Test 6: Concurrent payments through the engine
+        System.out.println("\n=== Test 6: Concurrent payments on virtual threads ===");
+        try (PaymentEngine engine = new PaymentEngine(() -> System.out.println("✉ Email sent"),
+                                                      () -> System.out.println("📝 Transaction logged"), 100)) {
+            CompletableFuture<String> card = engine.submit(new CreditCardPayment(stripe), Money.ofCents(1250),
+                new CardPayload("4111111111111111", "123"));
+            CompletableFuture<String> wallet = engine.submit(new PayPalWalletPayment(paypal), Money.ofCents(4000),
+                new WalletPayload("wallet@user.com"));
+            System.out.println("Transactions: " + card.join() + ", " + wallet.join());
+        }
+        
+        // Test 7: Gateways chosen by capability, with failover
+        System.out.println("\n=== Test 7: Routed payments with failover ===");
+        GatewayRouter router = new GatewayRouter(List.of(stripe, paypal));
+        System.out.println("Stripe supports " + router.capabilitiesOf(stripe) + ", PayPal supports " + router.capabilitiesOf(paypal));
+        PaymentMethod<CardPayload> routedCard = new CreditCardPayment(router);
+        routedCard.execute(Money.ofCents(2000), new CardPayload("4111111111111111", "123"));
+        router.markUnavailable(stripe);
+        System.out.println("(Stripe marked unavailable)");
+        routedCard.execute(Money.ofCents(2000), new CardPayload("4111111111111111", "123"));
+        
+        // Test 8: Client retries with the same idempotency keys
+        System.out.println("\n=== Test 8: Retried payment and refund are applied once ===");
+        IdempotentPaymentProcessor idempotent = new IdempotentPaymentProcessor(processor, 24 * 3600 * 1000L, 100_000);
+        CardPayload order = new CardPayload("4111111111111111", "123");
+        String charged = idempotent.process("order-1001", new CreditCardPayment(stripe), Money.ofCents(4999), order);
+        String retried = idempotent.process("order-1001", new CreditCardPayment(stripe), Money.ofCents(4999), order);
+        System.out.println("Charge retry returned the same transaction: " + charged.equals(retried));
+        String refunded = idempotent.refund("refund-1001", stripe, charged, Money.ofCents(4999));
+        String refundRetried = idempotent.refund("refund-1001", stripe, charged, Money.ofCents(4999));
+        System.out.println("Refund retry returned the same refund: " + refunded.equals(refundRetried));
+    }
+}
+
+// ============================================
+// ENGINE BENCHMARK
+// ============================================
+
+// Gateway that only waits, to stand in for a remote call with a fixed latency
+// A call costs latencyMillis whether it carries one payment or a batch, plus itemMicros per payment.
+class SimulatedGateway implements PaymentGateway {
+    private final long latencyMillis;
+    private final long itemMicros;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong calls = new AtomicLong();
+    
+    public SimulatedGateway(long latencyMillis) {
+        this(latencyMillis, 0);
+    }
+    
+    public SimulatedGateway(long latencyMillis, long itemMicros) {
+        this.latencyMillis = latencyMillis;
+        this.itemMicros = itemMicros;
+    }
+    
+    public String process(Money amount, PaymentPayload payload) {
+        pause(1);
+        return "SIM_" + sequence.incrementAndGet();
+    }
+    
+    public boolean issued(String txId) {
+        return txId.startsWith("SIM_");
+    }
+    
+    public List<String> processBatch(List<Money> amounts, List<PaymentPayload> payloads) {
+        pause(amounts.size());
+        List<String> txIds = new ArrayList<>(amounts.size());
+        for (int i = 0; i < amounts.size(); i++) {
+            txIds.add("SIM_" + sequence.incrementAndGet());
+        }
+        return txIds;
+    }
+    
+    public long getCallCount() {
+        return calls.get();
+    }
+    
+    private void pause(int items) {
+        calls.incrementAndGet();
+        try {
+            Thread.sleep(Duration.ofMillis(latencyMillis).plusNanos(items * itemMicros * 1_000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+    }
+    
+    public boolean supports(String type) {
+        return true;
+    }
+}
+
+// Pushes the same payments through a pool of platform threads calling PaymentProcessor,
+// then through PaymentEngine, against a gateway with a simulated 50 ms latency.
+class PaymentEngineBenchmark {
+    private static final int PAYMENTS = 20_000;
+    private static final int PLATFORM_THREADS = 200;
+    private static final int GATEWAY_LIMIT = 5_000;
+    private static final long LATENCY_MILLIS = 50;
+    
+    public static void main(String[] args) throws Exception {
+        CardPayload card = new CardPayload("4111111111111111", "123");
+        Runnable noop = () -> { };
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            PaymentGateway gateway = new SimulatedGateway(LATENCY_MILLIS);
+            PaymentMethod<CardPayload> method = new CreditCardPayment(gateway);
+            
+            PaymentProcessor processor = new PaymentProcessor(noop, noop);
+            ExecutorService pool = Executors.newFixedThreadPool(PLATFORM_THREADS);
+            long start = System.nanoTime();
+            List<Future<String>> pooled = new ArrayList<>(PAYMENTS);
+            for (int i = 0; i < PAYMENTS; i++) {
+                pooled.add(pool.submit(() -> processor.process(method, Money.ofCents(1000), card)));
+            }
+            for (Future<String> future : pooled) {
+                future.get();
+            }
+            report(console, PLATFORM_THREADS + " platform threads", start);
+            pool.shutdown();
+            
+            start = System.nanoTime();
+            try (PaymentEngine engine = new PaymentEngine(noop, noop, GATEWAY_LIMIT)) {
+                List<CompletableFuture<String>> submitted = new ArrayList<>(PAYMENTS);
+                for (int i = 0; i < PAYMENTS; i++) {
+                    submitted.add(engine.submit(method, Money.ofCents(1000), card));
+                }
+                for (CompletableFuture<String> future : submitted) {
+                    future.join();
+                }
+                report(console, "engine, limit " + GATEWAY_LIMIT, start);
+            }
+        } finally {
+            System.setOut(console);
+        }
+    }
+    
+    private static void report(PrintStream out, String label, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        out.printf("%-26s %,8d payments in %5.2f s  (%,.0f payments/s, %d platform threads)%n",
+            label, PAYMENTS, seconds, PAYMENTS / seconds, Thread.activeCount());
+    }
+}
+
+// Open-loop load against a gateway whose calls cost 5 ms + 20 us per payment and that allows
+// 8 concurrent connections: one call per payment (engine) versus micro-batches (settlement stage).
+// First at an offered 1,000 payments/s to compare latency, then unpaced to compare peak throughput.
+class SettlementBenchmark {
+    private static final int PAYMENTS = 10_000;
+    private static final int CONNECTIONS = 8;
+    private static final long CALL_MILLIS = 5;
+    private static final long ITEM_MICROS = 20;
+    private static final CardPayload CARD = new CardPayload("4111111111111111", "123");
+    
+    public static void main(String[] args) {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int ratePerSecond : new int[] {1_000, 0}) {
+                console.println(ratePerSecond == 0 ? "Unpaced:" : "Offered " + ratePerSecond + " payments/s:");
+                compare(console, ratePerSecond);
+            }
+        } finally {
+            System.setOut(console);
+        }
+    }
+    
+    private static void compare(PrintStream out, int ratePerSecond) {
+        Runnable noop = () -> { };
+        SimulatedGateway single = new SimulatedGateway(CALL_MILLIS, ITEM_MICROS);
+        try (PaymentEngine engine = new PaymentEngine(noop, noop, CONNECTIONS)) {
+            PaymentMethod<CardPayload> method = new CreditCardPayment(single);
+            run(out, "  one call per payment", single, ratePerSecond, amount -> engine.submit(method, amount, CARD));
+        }
+        for (int batchSize : new int[] {16, 64}) {
+            SimulatedGateway batched = new SimulatedGateway(CALL_MILLIS, ITEM_MICROS);
+            try (SettlementStage stage = new SettlementStage(noop, noop, batchSize, 2)) {
+                PaymentMethod<CardPayload> method = new CreditCardPayment(batched);
+                run(out, "  batches of " + batchSize + ", 2 ms", batched, ratePerSecond,
+                    amount -> stage.submit(method, amount, CARD));
+            }
+        }
+    }
+    
+    private static void run(PrintStream out, String label, SimulatedGateway gateway, int ratePerSecond,
+                            Function<Money, CompletableFuture<String>> submit) {
+        long[] latencies = new long[PAYMENTS];
+        List<CompletableFuture<String>> futures = new ArrayList<>(PAYMENTS);
+        long intervalNanos = ratePerSecond == 0 ? 0 : 1_000_000_000L / ratePerSecond;
+        long start = System.nanoTime();
+        for (int i = 0; i < PAYMENTS; i++) {
+            long due = start + i * intervalNanos;
+            while (System.nanoTime() < due) {
+                LockSupport.parkNanos(due - System.nanoTime());
+            }
+            int index = i;
+            long submitted = System.nanoTime();
+            futures.add(submit.apply(Money.ofCents(1000 + i))
+                .whenComplete((txId, error) -> latencies[index] = System.nanoTime() - submitted));
+        }
+        for (CompletableFuture<String> future : futures) {
+            future.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Arrays.sort(latencies);
+        out.printf("%-24s %,7.0f payments/s  p50 %7.1f ms  p99 %7.1f ms  %,6d gateway calls%n",
+            label, PAYMENTS / seconds, latencies[PAYMENTS / 2] / 1e6, latencies[PAYMENTS * 99 / 100] / 1e6,
+            gateway.getCallCount());
+    }
+}
+
+// Uniqueness across 32 threads sharing one generator, then single- and multi-threaded ops/sec.
+class TransactionIdBenchmark {
+    private static final int THREADS = 32;
+    private static final int IDS_PER_THREAD = 250_000;
+    
+    public static void main(String[] args) throws InterruptedException {
+        TransactionIdGenerator generator = new TransactionIdGenerator(7);
+        long[][] generated = new long[THREADS][IDS_PER_THREAD];
+        Thread[] threads = new Thread[THREADS];
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            long[] ids = generated[t];
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = generator.next();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        
+        long[] all = new long[THREADS * IDS_PER_THREAD];
+        boolean increasingPerThread = true;
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 1; i < IDS_PER_THREAD; i++) {
+                increasingPerThread &= generated[t][i] > generated[t][i - 1];
+            }
+            System.arraycopy(generated[t], 0, all, t * IDS_PER_THREAD, IDS_PER_THREAD);
+        }
+        Arrays.sort(all);
+        int duplicates = 0;
+        for (int i = 1; i < all.length; i++) {
+            if (all[i] == all[i - 1]) {
+                duplicates++;
+            }
+        }
+        System.out.printf("%d threads: %,d IDs, %d duplicates, increasing per thread: %b, %,.0f ids/s%n",
+            THREADS, all.length, duplicates, increasingPerThread, all.length / seconds);
+        
+        long checksum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < 10_000_000; i++) {
+            checksum += generator.next();
+        }
+        seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("1 thread, next():          %,.0f ids/s%n", 10_000_000 / seconds);
+        
+        start = System.nanoTime();
+        for (int i = 0; i < 10_000_000; i++) {
+            checksum += generator.nextId("STR_").length();
+        }
+        seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("1 thread, nextId(\"STR_\"): %,.0f ids/s (checksum %d)%n", 10_000_000 / seconds, checksum);
+        
+        long sample = generator.next();
+        String encoded = TransactionIdGenerator.format("STR_", sample);
+        System.out.println("Sample: " + encoded + " -> node " + TransactionIdGenerator.node(sample)
+            + ", round trip " + (TransactionIdGenerator.parse(encoded) == sample));
+    }
+}
+
+// Gateway with injectable trouble: a share of calls take slowMillis instead of latencyMillis,
+// and a share fail as unavailable. Both can be changed while it runs.
+class FaultyGateway implements PaymentGateway {
+    private final long latencyMillis;
+    private volatile double slowRate;
+    private volatile long slowMillis;
+    private volatile double errorRate;
+    
+    public FaultyGateway(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+    
+    public void degrade(double slowRate, long slowMillis, double errorRate) {
+        this.slowRate = slowRate;
+        this.slowMillis = slowMillis;
+        this.errorRate = errorRate;
+    }
+    
+    public String process(Money amount, PaymentPayload payload) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean slow = random.nextDouble() < slowRate;
+        try {
+            Thread.sleep(slow ? slowMillis : latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+        if (random.nextDouble() < errorRate) {
+            throw new GatewayUnavailableException("503 from gateway");
+        }
+        return TransactionIdGenerator.shared().nextId("FLT_");
+    }
+    
+    public boolean issued(String txId) {
+        return txId.startsWith("FLT_");
+    }
+    
+    public boolean supports(String type) {
+        return true;
+    }
+    
+    public String refund(String txId, Money amount) {
+        return TransactionIdGenerator.shared().nextId("REFUND_");
+    }
+}
+
+// Latency percentiles and failures for 100 concurrent callers when the primary gateway has a slow
+// tail (5% at 300 ms) or is failing (40% errors, 20% slow), calling it directly versus through
+// GatewayRouter (breakers only, then breakers plus hedging at p90).
+class ResilienceBenchmark {
+    private static final int CALLERS = 100;
+    private static final int PAYMENTS = 4_000;
+    private static final CardPayload CARD = new CardPayload("4111111111111111", "123");
+    
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("Slow tail on the primary:");
+        scenario(0.05, 300, 0.0);
+        System.out.println("Primary failing:");
+        scenario(0.20, 300, 0.40);
+    }
+    
+    private static void scenario(double slowRate, long slowMillis, double errorRate) throws InterruptedException {
+        FaultyGateway primary = new FaultyGateway(10);
+        FaultyGateway secondary = new FaultyGateway(15);
+        primary.degrade(slowRate, slowMillis, errorRate);
+        
+        run("  direct to primary", amount -> primary.process(amount, CARD));
+        try (GatewayRouter router = new GatewayRouter(List.of(primary, secondary))) {
+            PaymentGateway card = router.forType(PaymentType.CREDIT_CARD);
+            run("  circuit breakers", amount -> card.process(amount, CARD));
+        }
+        try (GatewayRouter router = new GatewayRouter(List.of(primary, secondary), 0.90, 50)) {
+            PaymentGateway card = router.forType(PaymentType.CREDIT_CARD);
+            run("  breakers + hedging p90", amount -> card.process(amount, CARD));
+        }
+    }
+    
+    private static void run(String label, Function<Money, String> pay) throws InterruptedException {
+        long[] latencies = new long[PAYMENTS];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        Thread[] callers = new Thread[CALLERS];
+        for (int c = 0; c < CALLERS; c++) {
+            callers[c] = Thread.ofVirtual().start(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < PAYMENTS) {
+                    long start = System.nanoTime();
+                    try {
+                        pay.apply(Money.ofCents(1000));
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                    }
+                    latencies[i] = System.nanoTime() - start;
+                }
+            });
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-26s p50 %6.1f ms  p99 %6.1f ms  failed %5d%n", label,
+            latencies[PAYMENTS / 2] / 1e6, latencies[PAYMENTS * 99 / 100] / 1e6, failures.get());
+    }
+}
+
+// Cost per card payment of handing the details to the gateway: the former Map + "number|cvv" string
+// that the gateway split again, versus the typed payload, and the binary round trip for queueing.
+// Allocation is measured with the JVM's per-thread allocation counter.
+class PayloadBenchmark {
+    private static final int ITERATIONS = 5_000_000;
+    
+    interface Step {
+        long run(int i);
+    }
+    
+    public static void main(String[] args) {
+        String[] cardNumbers = new String[1024];
+        for (int i = 0; i < cardNumbers.length; i++) {
+            cardNumbers[i] = String.valueOf(4111111111111111L + i * 7919L);
+        }
+        
+        Step mapAndString = i -> {
+            Map<String, String> data = Map.of("cardNumber", cardNumbers[i & 1023], "cvv", "123");
+            String joined = data.get("cardNumber") + "|" + data.get("cvv");
+            String[] fields = joined.split("\\|");
+            return fields[0].length() + fields[1].length();
+        };
+        Step typed = i -> {
+            CardPayload payload = new CardPayload(cardNumbers[i & 1023], "123");
+            return payload.cardNumber().length() + payload.cvv().length();
+        };
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        Step binary = i -> {
+            buffer.clear();
+            PayloadCodec.encode(new CardPayload(cardNumbers[i & 1023], "123"), buffer);
+            buffer.flip();
+            CardPayload decoded = (CardPayload) PayloadCodec.decode(buffer);
+            return decoded.cardNumber().length() + buffer.limit();
+        };
+        
+        for (int round = 0; round < 2; round++) {
+            System.out.println(round == 0 ? "Warm-up:" : "Measured:");
+            measure("  Map + joined string", mapAndString);
+            measure("  typed payload", typed);
+            measure("  typed + binary round trip", binary);
+        }
+        System.out.println("Encoded card payload: " + PayloadCodec.encode(new CardPayload(cardNumbers[0], "123")).length
+            + " bytes (joined string: " + (cardNumbers[0] + "|123").length() + " chars)");
+    }
+    
+    private static void measure(String label, Step step) {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            checksum += step.run(i);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        System.out.printf("%-30s %6.1f ns/payment  %5d bytes/payment  (checksum %d)%n",
+            label, (double) elapsed / ITERATIONS, allocated / ITERATIONS, checksum);
     }
 }
\ No newline at end of file